@@ -0,0 +1,240 @@
+package ext;
+
+/*
+ * Single precision variant of SimplexNoiseOctave for 2D and 3D noise
+ *
+ * Produces the same permutation as SimplexNoiseOctave for a given seed but keeps
+ * the gradients in one flat float table and the permutations in int arrays, and
+ * does all of its math in float. No objects are touched and nothing is allocated
+ * per call, which halves the memory traffic of the inner loop. SimplexNoise sums
+ * whole rows through addNoise
+ *
+ * Values differ from the double version by float rounding only
+ */
+
+public class FloatSimplexNoiseOctave {
+
+	// grad3 from SimplexNoiseOctave flattened as x, y, z triples
+	private static final float GRAD3[] = { 1, 1, 0, -1, 1, 0, 1, -1, 0, -1, -1, 0, 1, 0, 1, -1, 0, 1, 1, 0, -1, -1,
+			0, -1, 0, 1, 1, 0, -1, 1, 0, 1, -1, 0, -1, -1 };
+
+	// Skewing and unskewing factors for 2 and 3 dimensions
+	private static final float F2 = (float) (0.5 * (Math.sqrt(3.0) - 1.0));
+	private static final float G2 = (float) ((3.0 - Math.sqrt(3.0)) / 6.0);
+	private static final float F3 = 1.0F / 3.0F;
+	private static final float G3 = 1.0F / 6.0F;
+
+	// To remove the need for index wrapping, double the permutation table length
+	// permMod12 is pre-multiplied by 3 to index GRAD3 directly
+	private final int perm[] = new int[512];
+	private final int permGrad[] = new int[512];
+
+	public FloatSimplexNoiseOctave(int seed) {
+		short[] p = SimplexNoiseOctave.shuffle(seed);
+
+		for (int i = 0; i < 512; i++) {
+			perm[i] = p[i & 255];
+			permGrad[i] = (perm[i] % 12) * 3;
+		}
+	}
+
+	// Same as (int)Math.floor(x) but a lot faster
+	private static int fastfloor(float x) {
+		int xi = (int) x;
+		return x < xi ? xi - 1 : xi;
+	}
+
+	// 2D simplex noise
+	public float noise(float xin, float yin) {
+		// Skew the input space to determine which simplex cell we're in
+		float s = (xin + yin) * F2;
+		int i = fastfloor(xin + s);
+		int j = fastfloor(yin + s);
+		float t = (i + j) * G2;
+		// The x,y distances from the unskewed cell origin
+		float x0 = xin - (i - t);
+		float y0 = yin - (j - t);
+		// Offsets for the middle corner, lower or upper triangle
+		int i1 = x0 > y0 ? 1 : 0;
+		int j1 = 1 - i1;
+		float x1 = x0 - i1 + G2;
+		float y1 = y0 - j1 + G2;
+		float x2 = x0 - 1.0F + 2.0F * G2;
+		float y2 = y0 - 1.0F + 2.0F * G2;
+		// Work out the hashed gradient offsets of the three simplex corners
+		int ii = i & 255;
+		int jj = j & 255;
+		int g0 = permGrad[ii + perm[jj]];
+		int g1 = permGrad[ii + i1 + perm[jj + j1]];
+		int g2 = permGrad[ii + 1 + perm[jj + 1]];
+		// Calculate the contribution from the three corners
+		float n = 0.0F;
+		float t0 = 0.5F - x0 * x0 - y0 * y0;
+		if (t0 > 0) {
+			t0 *= t0;
+			n += t0 * t0 * (GRAD3[g0] * x0 + GRAD3[g0 + 1] * y0);
+		}
+		float t1 = 0.5F - x1 * x1 - y1 * y1;
+		if (t1 > 0) {
+			t1 *= t1;
+			n += t1 * t1 * (GRAD3[g1] * x1 + GRAD3[g1 + 1] * y1);
+		}
+		float t2 = 0.5F - x2 * x2 - y2 * y2;
+		if (t2 > 0) {
+			t2 *= t2;
+			n += t2 * t2 * (GRAD3[g2] * x2 + GRAD3[g2 + 1] * y2);
+		}
+		// Scaled to return values in the interval [-1,1]
+		return 70.0F * n;
+	}
+
+	// 2D simplex noise for a row of points, adds noise((x0 + k) * scale, yin) * amplitude
+	// to row[offset + k] for k from 0 to length
+	/*
+	 * Same values as calling noise(float, float) for every point, but with no call
+	 * per point and two int to float conversions per point instead of eight.
+	 * Those conversions only write part of their target register and so wait on
+	 * its previous value, with eight of them the float loop ran behind the double
+	 * one
+	 */
+	public void addNoise(float[] row, int offset, int x0, float scale, float yin, float amplitude, int length) {
+		// Pixel coordinates are whole floats, exact below 2^24, so the loop needs no int to float conversion
+		float x = x0;
+		for (int k = 0; k < length; k++, x += 1.0F) {
+			float xin = x * scale;
+			// Skew the input space to determine which simplex cell we're in
+			float s = (xin + yin) * F2;
+			float xs = xin + s, ys = yin + s;
+			// Floor of both as int and as float, with one conversion each
+			int i = (int) xs, j = (int) ys;
+			float fi = i, fj = j;
+			if (xs < fi) {
+				i--;
+				fi -= 1.0F;
+			}
+			if (ys < fj) {
+				j--;
+				fj -= 1.0F;
+			}
+			float t = (fi + fj) * G2;
+			// The x,y distances from the unskewed cell origin
+			float x0d = xin - (fi - t);
+			float y0d = yin - (fj - t);
+			// Offsets for the middle corner, lower or upper triangle
+			int i1, j1;
+			float x1, y1;
+			if (x0d > y0d) {
+				i1 = 1;
+				j1 = 0;
+				x1 = x0d - 1.0F + G2;
+				y1 = y0d + G2;
+			} else {
+				i1 = 0;
+				j1 = 1;
+				x1 = x0d + G2;
+				y1 = y0d - 1.0F + G2;
+			}
+			float x2 = x0d - 1.0F + 2.0F * G2;
+			float y2 = y0d - 1.0F + 2.0F * G2;
+			// Work out the hashed gradient offsets of the three simplex corners
+			int ii = i & 255;
+			int jj = j & 255;
+			int g0 = permGrad[ii + perm[jj]];
+			int g1 = permGrad[ii + i1 + perm[jj + j1]];
+			int g2 = permGrad[ii + 1 + perm[jj + 1]];
+			// Calculate the contribution from the three corners
+			float n = 0.0F;
+			float t0 = 0.5F - x0d * x0d - y0d * y0d;
+			if (t0 > 0) {
+				t0 *= t0;
+				n += t0 * t0 * (GRAD3[g0] * x0d + GRAD3[g0 + 1] * y0d);
+			}
+			float t1 = 0.5F - x1 * x1 - y1 * y1;
+			if (t1 > 0) {
+				t1 *= t1;
+				n += t1 * t1 * (GRAD3[g1] * x1 + GRAD3[g1 + 1] * y1);
+			}
+			float t2 = 0.5F - x2 * x2 - y2 * y2;
+			if (t2 > 0) {
+				t2 *= t2;
+				n += t2 * t2 * (GRAD3[g2] * x2 + GRAD3[g2 + 1] * y2);
+			}
+			row[offset + k] += 70.0F * n * amplitude;
+		}
+	}
+
+	// 3D simplex noise
+	public float noise(float xin, float yin, float zin) {
+		// Skew the input space to determine which simplex cell we're in
+		float s = (xin + yin + zin) * F3;
+		int i = fastfloor(xin + s);
+		int j = fastfloor(yin + s);
+		int k = fastfloor(zin + s);
+		float t = (i + j + k) * G3;
+		// The x,y,z distances from the unskewed cell origin
+		float x0 = xin - (i - t);
+		float y0 = yin - (j - t);
+		float z0 = zin - (k - t);
+		// Offsets for the second and third corners, found from the rank order of x0, y0, z0
+		int i1, j1, k1, i2, j2, k2;
+		if (x0 >= y0) {
+			if (y0 >= z0) {
+				i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 1; k2 = 0;
+			} else if (x0 >= z0) {
+				i1 = 1; j1 = 0; k1 = 0; i2 = 1; j2 = 0; k2 = 1;
+			} else {
+				i1 = 0; j1 = 0; k1 = 1; i2 = 1; j2 = 0; k2 = 1;
+			}
+		} else {
+			if (y0 < z0) {
+				i1 = 0; j1 = 0; k1 = 1; i2 = 0; j2 = 1; k2 = 1;
+			} else if (x0 < z0) {
+				i1 = 0; j1 = 1; k1 = 0; i2 = 0; j2 = 1; k2 = 1;
+			} else {
+				i1 = 0; j1 = 1; k1 = 0; i2 = 1; j2 = 1; k2 = 0;
+			}
+		}
+		float x1 = x0 - i1 + G3;
+		float y1 = y0 - j1 + G3;
+		float z1 = z0 - k1 + G3;
+		float x2 = x0 - i2 + 2.0F * G3;
+		float y2 = y0 - j2 + 2.0F * G3;
+		float z2 = z0 - k2 + 2.0F * G3;
+		float x3 = x0 - 1.0F + 3.0F * G3;
+		float y3 = y0 - 1.0F + 3.0F * G3;
+		float z3 = z0 - 1.0F + 3.0F * G3;
+		// Work out the hashed gradient offsets of the four simplex corners
+		int ii = i & 255;
+		int jj = j & 255;
+		int kk = k & 255;
+		int g0 = permGrad[ii + perm[jj + perm[kk]]];
+		int g1 = permGrad[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
+		int g2 = permGrad[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
+		int g3 = permGrad[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
+		// Calculate the contribution from the four corners
+		float n = 0.0F;
+		float t0 = 0.6F - x0 * x0 - y0 * y0 - z0 * z0;
+		if (t0 > 0) {
+			t0 *= t0;
+			n += t0 * t0 * (GRAD3[g0] * x0 + GRAD3[g0 + 1] * y0 + GRAD3[g0 + 2] * z0);
+		}
+		float t1 = 0.6F - x1 * x1 - y1 * y1 - z1 * z1;
+		if (t1 > 0) {
+			t1 *= t1;
+			n += t1 * t1 * (GRAD3[g1] * x1 + GRAD3[g1 + 1] * y1 + GRAD3[g1 + 2] * z1);
+		}
+		float t2 = 0.6F - x2 * x2 - y2 * y2 - z2 * z2;
+		if (t2 > 0) {
+			t2 *= t2;
+			n += t2 * t2 * (GRAD3[g2] * x2 + GRAD3[g2 + 1] * y2 + GRAD3[g2 + 2] * z2);
+		}
+		float t3 = 0.6F - x3 * x3 - y3 * y3 - z3 * z3;
+		if (t3 > 0) {
+			t3 *= t3;
+			n += t3 * t3 * (GRAD3[g3] * x3 + GRAD3[g3 + 1] * y3 + GRAD3[g3 + 2] * z3);
+		}
+		// Scaled to stay just inside [-1,1]
+		return 32.0F * n;
+	}
+
+}
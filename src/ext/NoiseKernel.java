@@ -0,0 +1,30 @@
+package ext;
+
+public enum NoiseKernel {
+
+	/*
+	 * Selects how SimplexNoise evaluates its octaves
+	 *
+	 * SCALAR evaluates one point at a time through SimplexNoiseOctave.noise and is
+	 * the reference implementation
+	 *
+	 * VECTOR evaluates a row of points at a time through SimplexNoiseOctave.addNoise,
+	 * a loop over flat tables laid out for SIMD lanes. It performs the same double
+	 * operations in the same order as SCALAR, results agree with SCALAR within
+	 * VECTOR_TOLERANCE (in practice they are identical). C2 does not vectorize the
+	 * permutation lookups, the gain over SCALAR comes from the row loop itself,
+	 * around 20% (see runtime.NoiseBenchmark)
+	 *
+	 * FLOAT evaluates rows through FloatSimplexNoiseOctave.addNoise, flat primitive
+	 * tables and single precision math with no allocation. It runs about as fast as
+	 * VECTOR, without vector instructions float lanes gain nothing over double
+	 * ones. Values differ from SCALAR by float rounding, on the order of 1e-5 in a
+	 * finished world
+	 */
+
+	SCALAR, VECTOR, FLOAT;
+
+	// Maximum absolute difference between a VECTOR and a SCALAR noise value
+	public static final double VECTOR_TOLERANCE = 1e-12;
+
+}
@@ -0,0 +1,129 @@
+package ext;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class OctaveRegistry {
+
+	/*
+	 * Shared, bounded cache of simplex octaves keyed by octave seed
+	 * 
+	 * Octaves only read their permutation tables once built, so one instance can
+	 * be handed to any number of SimplexNoise objects on any thread. Regenerating
+	 * a seed (different flags, previews, batches) then skips the 400 swaps and
+	 * table builds per octave. The least recently used octaves are dropped once
+	 * the capacity is reached
+	 * 
+	 * SimplexNoiseOctave.RANDOMSEED asks for a fresh random octave and is never cached
+	 */
+
+	// Default number of octaves of each kind kept, roughly 2.5KB (double) or 4KB (float) each
+	public static final int DEFAULT_CAPACITY = 512;
+
+	private static int capacity = DEFAULT_CAPACITY;
+	private static long hits, misses;
+
+	private static final Map<Integer, SimplexNoiseOctave> octaves = new LinkedHashMap<Integer, SimplexNoiseOctave>(16,
+			0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, SimplexNoiseOctave> eldest) {
+			return size() > capacity;
+		}
+	};
+
+	private static final Map<Integer, FloatSimplexNoiseOctave> floatOctaves = new LinkedHashMap<Integer, FloatSimplexNoiseOctave>(
+			16, 0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, FloatSimplexNoiseOctave> eldest) {
+			return size() > capacity;
+		}
+	};
+
+	// Returns the octave for a seed, building it if it is not cached
+	public static SimplexNoiseOctave getOctave(int seed) {
+		if (seed == SimplexNoiseOctave.RANDOMSEED) {
+			return new SimplexNoiseOctave(seed);
+		}
+
+		synchronized (OctaveRegistry.class) {
+			SimplexNoiseOctave octave = octaves.get(seed);
+			if (octave != null) {
+				hits++;
+				return octave;
+			}
+			misses++;
+		}
+
+		// Built outside the lock, if two threads race the first one stored wins
+		SimplexNoiseOctave octave = new SimplexNoiseOctave(seed);
+		synchronized (OctaveRegistry.class) {
+			SimplexNoiseOctave stored = octaves.putIfAbsent(seed, octave);
+			return stored != null ? stored : octave;
+		}
+	}
+
+	// Returns the single precision octave for a seed, building it if it is not cached
+	public static FloatSimplexNoiseOctave getFloatOctave(int seed) {
+		if (seed == SimplexNoiseOctave.RANDOMSEED) {
+			return new FloatSimplexNoiseOctave(seed);
+		}
+
+		synchronized (OctaveRegistry.class) {
+			FloatSimplexNoiseOctave octave = floatOctaves.get(seed);
+			if (octave != null) {
+				hits++;
+				return octave;
+			}
+			misses++;
+		}
+
+		FloatSimplexNoiseOctave octave = new FloatSimplexNoiseOctave(seed);
+		synchronized (OctaveRegistry.class) {
+			FloatSimplexNoiseOctave stored = floatOctaves.putIfAbsent(seed, octave);
+			return stored != null ? stored : octave;
+		}
+	}
+
+	// Sets how many octaves of each kind are kept, evicting the oldest if needed
+	public static synchronized void setCapacity(int capacity) {
+		OctaveRegistry.capacity = Math.max(capacity, 0);
+		trim(octaves);
+		trim(floatOctaves);
+	}
+
+	// Returns how many octaves of each kind are kept
+	public static synchronized int getCapacity() {
+		return capacity;
+	}
+
+	// Drops every cached octave
+	public static synchronized void clear() {
+		octaves.clear();
+		floatOctaves.clear();
+	}
+
+	// Returns the number of lookups served from the cache
+	public static synchronized long getHits() {
+		return hits;
+	}
+
+	// Returns the number of lookups that had to build an octave
+	public static synchronized long getMisses() {
+		return misses;
+	}
+
+	// Removes least recently used entries until the map fits the capacity
+	private static void trim(Map<Integer, ?> map) {
+		Iterator<Integer> it = map.keySet().iterator();
+		while (map.size() > capacity && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+}
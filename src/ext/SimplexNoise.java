@@ -1,5 +1,6 @@
 package ext;
 
+import java.util.Arrays;
 import java.util.Random;
 
 //Just like in perlin noise you will in general combine several octaves of noise
@@ -13,6 +14,8 @@ import java.util.Random;
 public class SimplexNoise {
 
 	private SimplexNoiseOctave[] octaves;
+	private FloatSimplexNoiseOctave[] floatOctaves;
+	private int[] octaveSeeds;
 	private double[] frequencys;
 	private double[] amplitudes;
 
@@ -20,6 +23,18 @@ public class SimplexNoise {
 	private double persistence;
 	private int seed;
 
+	//Kernel used by the row and tile methods
+	private NoiseKernel kernel = NoiseKernel.SCALAR;
+
+	//Octaves that are summed by the 2D methods, all of them unless culled
+	private boolean[] active;
+	private double errorBound;
+
+	//Multi resolution synthesis, grid samples per noise unit for the coarse octaves (0 = off)
+	private int samplesPerUnit = 0;
+	//Octaves are only interpolated once their grid step reaches this many pixels
+	private static final int MIN_COARSE_STEP = 4;
+
 	//Custom constructor I built to better serve my purpose
 	public SimplexNoise(int octaveNum, double persistence, int seed) {
 		this.octaveNum = octaveNum;
@@ -27,18 +42,29 @@ public class SimplexNoise {
 		this.seed = seed;
 		
 		octaves = new SimplexNoiseOctave[octaveNum];
+		octaveSeeds = new int[octaveNum];
 		frequencys = new double[octaveNum];
 		amplitudes = new double[octaveNum];
 
 		Random rnd = new Random(this.seed);
 
 		for (int i = 0; i < octaveNum; i++) {
-			octaves[i] = new SimplexNoiseOctave(rnd.nextInt());
+			octaveSeeds[i] = rnd.nextInt();
+			octaves[i] = OctaveRegistry.getOctave(octaveSeeds[i]);
 			frequencys[i] = Math.pow(2, i);
 			amplitudes[i] = Math.pow(this.persistence, octaves.length - i);
 		}
+
+		active = new boolean[octaveNum];
+		Arrays.fill(active, true);
 	}
 	
+	//Same as above with the kernel used for row and tile evaluation
+	public SimplexNoise(int octaveNum, double persistence, int seed, NoiseKernel kernel) {
+		this(octaveNum, persistence, seed);
+		setKernel(kernel);
+	}
+
 	/* [[OLD CONSTRUCTOR]]
 	public SimplexNoise(int largestFeature, double persistence, int seed) {
 		this.largestFeature = largestFeature;
@@ -67,6 +93,9 @@ public class SimplexNoise {
 		for (int i = 0; i < octaves.length; i++) {
 //       double frequency = Math.pow(2,i);
 //       double amplitude = Math.pow(persistence,octaves.length-i);
+			if (!active[i]) {
+				continue;
+			}
 
 			result = result + octaves[i].noise(x / frequencys[i], y / frequencys[i]) * amplitudes[i];
 		}
@@ -74,6 +103,281 @@ public class SimplexNoise {
 		return result;
 	}
 
+	// Fills one row of 2D noise, width values starting at (x0, y), into out starting at offset
+	// Gives exactly the same values as calling getNoise2D for every pixel (multi resolution off)
+	public void getNoise2D(float[] out, int offset, int x0, int y, int width) {
+		getNoise2D(out, offset, width, x0, y, width, 1);
+	}
+
+	// Fills a width by height tile of 2D noise starting at (x0, y0) into out
+	// Pixel (x0 + i, y0 + j) is written to out[offset + j * stride + i]
+	// Gives exactly the same values as calling getNoise2D for every pixel (multi resolution off)
+	// With multi resolution synthesis on, the coarse octaves are interpolated instead
+	public void getNoise2D(float[] out, int offset, int stride, int x0, int y0, int width, int height) {
+		if (kernel == NoiseKernel.FLOAT) {
+			for (int j = 0; j < height; j++) {
+				fillRowFloat(out, offset + j * stride, x0, y0 + j, width);
+			}
+		} else {
+			double[] tile = new double[width * height];
+			for (int j = 0; j < height; j++) {
+				fillRow(tile, j * width, x0, y0 + j, width);
+			}
+
+			addCoarseOctaves(tile, null, 0, width, x0, y0, width, height);
+
+			for (int j = 0; j < height; j++) {
+				int base = offset + j * stride;
+				for (int i = 0; i < width; i++) {
+					out[base + i] = (float) tile[j * width + i];
+				}
+			}
+			return;
+		}
+
+		addCoarseOctaves(null, out, offset, stride, x0, y0, width, height);
+	}
+
+	// Sums every octave over one row, octave by octave, so the per octave setup is
+	// only done once per row instead of once per pixel
+	private void fillRow(double[] row, int offset, int x0, int y, int width) {
+		for (int i = 0; i < width; i++) {
+			row[offset + i] = 0;
+		}
+
+		for (int i = 0; i < octaves.length; i++) {
+			if (!active[i] || getCoarseStep(i) > 0) {
+				continue;
+			}
+
+			SimplexNoiseOctave octave = octaves[i];
+			// frequencys are powers of 2 so multiplying by the reciprocal is exact
+			double scale = 1.0 / frequencys[i];
+			double amplitude = amplitudes[i];
+			double yin = y * scale;
+
+			if (kernel == NoiseKernel.VECTOR) {
+				octave.addNoise(row, offset, x0, scale, yin, amplitude, width);
+			} else {
+				for (int k = 0; k < width; k++) {
+					row[offset + k] = row[offset + k] + octave.noise((x0 + k) * scale, yin) * amplitude;
+				}
+			}
+		}
+	}
+
+	// Single precision version of fillRow, sums straight into the output
+	private void fillRowFloat(float[] out, int offset, int x0, int y, int width) {
+		for (int k = 0; k < width; k++) {
+			out[offset + k] = 0.0F;
+		}
+
+		for (int i = 0; i < floatOctaves.length; i++) {
+			if (!active[i] || getCoarseStep(i) > 0) {
+				continue;
+			}
+
+			FloatSimplexNoiseOctave octave = floatOctaves[i];
+			float scale = (float) (1.0 / frequencys[i]);
+			float amplitude = (float) amplitudes[i];
+			float yin = y * scale;
+
+			octave.addNoise(out, offset, x0, scale, yin, amplitude, width);
+		}
+	}
+
+	/*
+	 * Multi resolution synthesis
+	 * 
+	 * Octave i varies on a scale of 2^i pixels, so once that is well above a pixel
+	 * the octave is sampled on a grid every 2^i / samplesPerUnit pixels and
+	 * rebuilt with bicubic (Catmull-Rom) interpolation. The grid is anchored at
+	 * multiples of the step so a pixel gets the same value whichever tile it is
+	 * evaluated in, and interpolation is exact on the grid points themselves
+	 * 
+	 * 16 samples per unit keeps the error around 1e-3, 8 around 1e-2
+	 */
+
+	// Returns the grid step for a coarse octave, or 0 if it is evaluated at every pixel
+	private int getCoarseStep(int octave) {
+		if (samplesPerUnit <= 0) {
+			return 0;
+		}
+
+		int step = (int) (frequencys[octave] / samplesPerUnit);
+		return step >= MIN_COARSE_STEP ? step : 0;
+	}
+
+	// Adds every active coarse octave over a tile to either acc (width by height)
+	// or out (offset and stride as in getNoise2D), in octave order
+	private void addCoarseOctaves(double[] acc, float[] out, int offset, int stride, int x0, int y0, int width,
+			int height) {
+		double[] tile = null;
+		for (int i = 0; i < octaves.length; i++) {
+			int step = getCoarseStep(i);
+			if (!active[i] || step == 0) {
+				continue;
+			}
+
+			if (tile == null) {
+				tile = new double[width * height];
+			}
+			interpolateOctave(i, step, tile, x0, y0, width, height);
+
+			for (int j = 0; j < height; j++) {
+				for (int k = 0; k < width; k++) {
+					if (acc != null) {
+						acc[j * width + k] = acc[j * width + k] + tile[j * width + k];
+					} else {
+						out[offset + j * stride + k] += (float) tile[j * width + k];
+					}
+				}
+			}
+		}
+	}
+
+	// Writes one octave, times its amplitude, over a tile interpolated from a grid every step pixels
+	private void interpolateOctave(int octave, int step, double[] tile, int x0, int y0, int width, int height) {
+		double scale = 1.0 / frequencys[octave];
+
+		// Grid points needed around the tile, one before and two after for the cubic
+		int gx0 = Math.floorDiv(x0, step) - 1, gy0 = Math.floorDiv(y0, step) - 1;
+		int nx = Math.floorDiv(x0 + width - 1, step) + 3 - gx0;
+		int ny = Math.floorDiv(y0 + height - 1, step) + 3 - gy0;
+
+		double[] grid = new double[nx * ny];
+		for (int b = 0; b < ny; b++) {
+			double yin = (double) (gy0 + b) * step * scale;
+			for (int a = 0; a < nx; a++) {
+				double xin = (double) (gx0 + a) * step * scale;
+				if (kernel == NoiseKernel.FLOAT) {
+					grid[b * nx + a] = floatOctaves[octave].noise((float) xin, (float) yin);
+				} else {
+					grid[b * nx + a] = octaves[octave].noise(xin, yin);
+				}
+			}
+		}
+
+		// Catmull-Rom weights for every offset within a step
+		double[] weights = new double[step * 4];
+		for (int r = 0; r < step; r++) {
+			double t = (double) r / step, t2 = t * t, t3 = t2 * t;
+			weights[r * 4] = 0.5 * (-t3 + 2 * t2 - t);
+			weights[r * 4 + 1] = 0.5 * (3 * t3 - 5 * t2 + 2);
+			weights[r * 4 + 2] = 0.5 * (-3 * t3 + 4 * t2 + t);
+			weights[r * 4 + 3] = 0.5 * (t3 - t2);
+		}
+
+		// Interpolate every grid row across the tile's columns
+		double[] rows = new double[ny * width];
+		for (int k = 0; k < width; k++) {
+			int x = x0 + k;
+			int g = Math.floorDiv(x, step);
+			int w = (x - g * step) * 4;
+			int a = g - 1 - gx0;
+			for (int b = 0; b < ny; b++) {
+				int c = b * nx + a;
+				rows[b * width + k] = weights[w] * grid[c] + weights[w + 1] * grid[c + 1]
+						+ weights[w + 2] * grid[c + 2] + weights[w + 3] * grid[c + 3];
+			}
+		}
+
+		// Then down the tile's rows
+		double amplitude = amplitudes[octave];
+		for (int j = 0; j < height; j++) {
+			int y = y0 + j;
+			int g = Math.floorDiv(y, step);
+			int w = (y - g * step) * 4;
+			int b = g - 1 - gy0;
+			for (int k = 0; k < width; k++) {
+				double v = weights[w] * rows[b * width + k] + weights[w + 1] * rows[(b + 1) * width + k]
+						+ weights[w + 2] * rows[(b + 2) * width + k] + weights[w + 3] * rows[(b + 3) * width + k];
+				tile[j * width + k] = v * amplitude;
+			}
+		}
+	}
+
+	//Returns how many grid samples per noise unit coarse octaves use, 0 if off
+	public int getMultiResolution() {
+		return samplesPerUnit;
+	}
+
+	//Turns on multi resolution synthesis for the row and tile methods
+	//samplesPerUnit = grid samples per noise unit for coarse octaves, 0 turns it off
+	public void setMultiResolution(int samplesPerUnit) {
+		this.samplesPerUnit = samplesPerUnit;
+	}
+
+	/*
+	 * Drops the octaves with the smallest amplitudes
+	 * 
+	 * A 2D octave stays within -1.0 to 1.0, so it changes a value by at most its
+	 * amplitude. Octaves are dropped smallest amplitude first for as long as the
+	 * summed amplitudes stay within epsilon. Only the 2D methods are affected
+	 * 
+	 * This is a plain amplitude cutoff, the map size does not change it. Octave i
+	 * covers (size - 1) / 2^i noise units of a map, at least a quarter of a unit
+	 * for every octave and world size here, and the noise gets past half its
+	 * largest value within that. No bound on the part of an octave a map covers
+	 * can drop coarse octaves at a useful epsilon, only fine low amplitude ones go
+	 * 
+	 * Returns the accepted error bound, every 2D value stays within it of the
+	 * value with all octaves summed. An epsilon of 0 restores all octaves
+	 */
+	public double cullOctaves(double epsilon) {
+		Integer[] order = new Integer[octaves.length];
+		for (int i = 0; i < octaves.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(Math.abs(amplitudes[a]), Math.abs(amplitudes[b])));
+
+		Arrays.fill(active, true);
+		errorBound = 0;
+		for (int i : order) {
+			if (errorBound + Math.abs(amplitudes[i]) > epsilon) {
+				break;
+			}
+			active[i] = false;
+			errorBound += Math.abs(amplitudes[i]);
+		}
+
+		return errorBound;
+	}
+
+	//Returns the error bound accepted by the last cullOctaves call
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	//Returns how many octaves the 2D methods sum
+	public int getActiveOctaves() {
+		int count = 0;
+		for (boolean a : active) {
+			if (a) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	//Returns the kernel used by the row and tile methods
+	public NoiseKernel getKernel() {
+		return kernel;
+	}
+
+	//Sets the kernel used by the row and tile methods
+	public void setKernel(NoiseKernel kernel) {
+		this.kernel = kernel;
+
+		//The float octaves are only built once they are needed
+		if (kernel == NoiseKernel.FLOAT && floatOctaves == null) {
+			floatOctaves = new FloatSimplexNoiseOctave[octaves.length];
+			for (int i = 0; i < octaves.length; i++) {
+				floatOctaves[i] = OctaveRegistry.getFloatOctave(octaveSeeds[i]);
+			}
+		}
+	}
+
 	public double getNoise3D(int x, int y, int z) {
 		double result = 0;
 		for (int i = 0; i < octaves.length; i++) {
@@ -52,14 +52,37 @@ public class SimplexNoiseOctave {
 			121, 50, 45, 127, 4, 150, 254, 138, 236, 205, 93, 222, 114, 67, 29, 24, 72, 243, 141, 128, 195, 78, 66, 215,
 			61, 156, 180 };
 
-	private short p[] = new short[p_supply.length];
+	// The tables are never written after construction, so octaves can be shared
+	// between threads (see OctaveRegistry)
+	private final short p[];
+
+	// Flat copies of the x and y components of grad3 for the row kernel
+	private static double grad3x[] = new double[grad3.length];
+	private static double grad3y[] = new double[grad3.length];
+
+	static {
+		for (int i = 0; i < grad3.length; i++) {
+			grad3x[i] = grad3[i].x;
+			grad3y[i] = grad3[i].y;
+		}
+	}
 
 	// To remove the need for index wrapping, double the permutation table length
-	private short perm[] = new short[512];
-	private short permMod12[] = new short[512];
+	private final short perm[] = new short[512];
+	private final short permMod12[] = new short[512];
 
 	public SimplexNoiseOctave(int seed) {
-		p = p_supply.clone();
+		p = shuffle(seed);
+
+		for (int i = 0; i < 512; i++) {
+			perm[i] = p[i & 255];
+			permMod12[i] = (short) (perm[i] % 12);
+		}
+	}
+
+	// Returns the permutation of p_supply for a seed, shared with FloatSimplexNoiseOctave
+	static short[] shuffle(int seed) {
+		short[] p = p_supply.clone();
 
 		if (seed == RANDOMSEED) {
 			Random rand = new Random();
@@ -80,10 +103,7 @@ public class SimplexNoiseOctave {
 			p[swapTo] = temp;
 		}
 
-		for (int i = 0; i < 512; i++) {
-			perm[i] = p[i & 255];
-			permMod12[i] = (short) (perm[i] % 12);
-		}
+		return p;
 	}
 
 	// Skewing and unskewing factors for 2, 3, and 4 dimensions
@@ -175,6 +195,79 @@ public class SimplexNoiseOctave {
 		return 70.0 * (n0 + n1 + n2);
 	}
 
+	// 2D simplex noise for a row of points, adds noise((x0 + k) * scale, yin) * amplitude
+	// to row[offset + k] for k from 0 to length
+	/*
+	 * Row version of noise(double, double) for the VECTOR kernel. Every lane runs
+	 * through one straight loop: the gradients come from flat tables instead of
+	 * Grad objects, the t < 0 branches are selects, and x and the cell corner are
+	 * kept as doubles so only two ints are converted per point instead of eight.
+	 * Those conversions only write part of their target register and so wait on
+	 * its previous value. The result is summed into the row in place and nothing
+	 * is allocated. The arithmetic is the same as the scalar method, see
+	 * NoiseKernel.VECTOR_TOLERANCE
+	 */
+	public void addNoise(double[] row, int offset, int x0, double scale, double yin, double amplitude, int length) {
+		// Pixel coordinates are whole doubles, so the loop needs no int to double conversion
+		double x = x0;
+		for (int k = 0; k < length; k++, x += 1.0) {
+			double xin = x * scale;
+			// Skew the input space and unskew the cell origin back
+			double s = (xin + yin) * F2;
+			double xs = xin + s, ys = yin + s;
+			// Floor of both as int and as double, with one conversion each
+			int i = (int) xs, j = (int) ys;
+			double fi = i, fj = j;
+			if (xs < fi) {
+				i--;
+				fi -= 1.0;
+			}
+			if (ys < fj) {
+				j--;
+				fj -= 1.0;
+			}
+			double t = (fi + fj) * G2;
+			double dx0 = xin - (fi - t);
+			double dy0 = yin - (fj - t);
+			// Offsets for the middle corner, lower or upper triangle
+			int i1, j1;
+			double dx1, dy1;
+			if (dx0 > dy0) {
+				i1 = 1;
+				j1 = 0;
+				dx1 = dx0 - 1.0 + G2;
+				dy1 = dy0 + G2;
+			} else {
+				i1 = 0;
+				j1 = 1;
+				dx1 = dx0 + G2;
+				dy1 = dy0 - 1.0 + G2;
+			}
+			double dx2 = dx0 - 1.0 + 2.0 * G2;
+			double dy2 = dy0 - 1.0 + 2.0 * G2;
+
+			// Hash the three corners, the only gathers
+			int ii = i & 255;
+			int jj = j & 255;
+			int gi0 = permMod12[ii + perm[jj]];
+			int gi1 = permMod12[ii + i1 + perm[jj + j1]];
+			int gi2 = permMod12[ii + 1 + perm[jj + 1]];
+
+			// Contributions from the three corners
+			double t0 = 0.5 - dx0 * dx0 - dy0 * dy0;
+			double q0 = t0 * t0;
+			double n0 = t0 < 0 ? 0.0 : q0 * q0 * (grad3x[gi0] * dx0 + grad3y[gi0] * dy0);
+			double t1 = 0.5 - dx1 * dx1 - dy1 * dy1;
+			double q1 = t1 * t1;
+			double n1 = t1 < 0 ? 0.0 : q1 * q1 * (grad3x[gi1] * dx1 + grad3y[gi1] * dy1);
+			double t2 = 0.5 - dx2 * dx2 - dy2 * dy2;
+			double q2 = t2 * t2;
+			double n2 = t2 < 0 ? 0.0 : q2 * q2 * (grad3x[gi2] * dx2 + grad3y[gi2] * dy2);
+
+			row[offset + k] = row[offset + k] + 70.0 * (n0 + n1 + n2) * amplitude;
+		}
+	}
+
 	// 3D simplex noise
 	public double noise(double xin, double yin, double zin) {
 		double n0, n1, n2, n3; // Noise contributions from the four corners
@@ -0,0 +1,151 @@
+package gen;
+
+final class CircularMaskFunction implements MaskFunction {
+
+	/*
+	 * The circular masks of MaskGenerator as a MaskFunction
+	 *
+	 * The value at (x, y) is modg - (distance / max_width)^2, at least 0.0, where
+	 * the distance is from the origin with both offsets scaled by modc. The column
+	 * offsets (origin - x) * modc are computed once, each row adds its own term
+	 *
+	 * The distance is the square root of the squared offsets, which are exact in
+	 * double, instead of Math.hypot. Both are within an ulp of the exact distance
+	 * in double, so they round to the same float unless the double lies right
+	 * next to halfway between two floats, where this falls back to Math.hypot
+	 */
+
+	private final int size, originX, originY;
+	private final float modc, max_width, modg;
+
+	// Squared distance beyond which every value is 0.0
+	private final double cutoff;
+
+	// Offsets past which a row or column is beyond the cutoff, the box within them
+	private final double limit;
+	private final int x0, x1, y0, y1;
+
+	// (originX - x) * modc per column
+	private final float[] columns;
+
+	CircularMaskFunction(int size, int originX, int originY, float max_width, float modc, float modg) {
+		this.size = size;
+		this.originX = originX;
+		this.originY = originY;
+		this.max_width = max_width;
+		this.modc = modc;
+		this.modg = modg;
+
+		double reach = reach(max_width, modg);
+		this.cutoff = reach * reach;
+		this.columns = offsets(originX, size, modc);
+
+		// Offsets past the limit are beyond the reach even after rounding (origin - x) * modc
+		this.limit = reach / Math.abs(modc) * (1.0D + 0x1p-20) + 1.0D;
+		if (limit < size) {
+			this.x0 = clamp(Math.floor(originX - limit), size);
+			this.x1 = clamp(Math.floor(originX + limit) + 1.0D, size);
+			this.y0 = clamp(Math.floor(originY - limit), size);
+			this.y1 = clamp(Math.floor(originY + limit) + 1.0D, size);
+		} else {
+			this.x0 = 0;
+			this.x1 = size;
+			this.y0 = 0;
+			this.y1 = size;
+		}
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public void getRow(int y, int x, float[] dst, int offset, int length) {
+		float rowOffset = (originY - y) * modc;
+		double rowSquare = (double) rowOffset * rowOffset;
+		if (rowSquare > cutoff) {
+			for (int i = offset; i < offset + length; i++) {
+				dst[i] = 0.0F;
+			}
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			dst[offset + i] = value(rowOffset, rowSquare, columns[x + i], max_width, modg, cutoff);
+		}
+	}
+
+	/*
+	 * Multiplies acc[offset] to acc[offset + to - from] by 1.0 minus the values of
+	 * row y from column from to to, the inverted mask. Only the columns within
+	 * the reach of the circle are touched, elsewhere the inverted mask is 1.0
+	 * and would leave acc unchanged
+	 */
+	void stampRow(int y, float[] acc, int offset, int from, int to) {
+		if (y < y0 || y >= y1) {
+			return;
+		}
+		float rowOffset = (originY - y) * modc;
+		double rowSquare = (double) rowOffset * rowOffset;
+		if (rowSquare > cutoff) {
+			return;
+		}
+
+		// Narrow the box to the chord of the reach on this row
+		int xa = Math.max(from, x0), xb = Math.min(to, x1);
+		if (limit < size) {
+			double chord = Math.sqrt(cutoff - rowSquare) / Math.abs(modc) * (1.0D + 0x1p-20) + 1.0D;
+			xa = Math.max(xa, clamp(Math.floor(originX - chord), size));
+			xb = Math.min(xb, clamp(Math.floor(originX + chord) + 1.0D, size));
+		}
+
+		for (int x = xa; x < xb; x++) {
+			float val = value(rowOffset, rowSquare, columns[x], max_width, modg, cutoff);
+			acc[offset + x - from] *= 1.0F - val;
+		}
+	}
+
+	// Value at row and column offsets b and a from the origin, already multiplied by modc, bb is b * b
+	static float value(float b, double bb, float a, float max_width, float modg, double cutoff) {
+		double squared = (double) a * a + bb;
+		if (squared > cutoff) {
+			return 0.0F;
+		}
+
+		double exact = Math.sqrt(squared);
+		float distance = (float) exact;
+		double below = ((double) distance + Math.nextDown(distance)) * 0.5D;
+		double above = ((double) distance + Math.nextUp(distance)) * 0.5D;
+		double margin = exact * 0x1p-40;
+		if (!(Math.abs(exact - below) > margin && Math.abs(exact - above) > margin)) {
+			distance = (float) (Math.hypot(Math.abs(b), Math.abs(a)));
+		}
+
+		float delta = distance / max_width;
+		float gradient = delta * delta;
+		float val = modg - gradient;
+		if (val < 0.0F) {
+			val = 0.0F;
+		}
+		return val;
+	}
+
+	// Distance beyond which modg - gradient is negative, with a wide margin for rounding
+	static double reach(float max_width, float modg) {
+		return Math.abs((double) max_width) * Math.sqrt(Math.max(modg, 0.0F)) * 1.01D + 1.0D;
+	}
+
+	// (origin - i) * modc for i in [0, count)
+	static float[] offsets(int origin, int count, float modc) {
+		float[] offsets = new float[count];
+		for (int i = 0; i < count; i++) {
+			offsets[i] = (origin - i) * modc;
+		}
+		return offsets;
+	}
+
+	private static int clamp(double val, int size) {
+		return (int) Math.max(0.0D, Math.min(size, val));
+	}
+
+}
@@ -0,0 +1,148 @@
+package gen;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+final class DirectFloatStorage implements FloatStorage {
+
+	/*
+	 * FloatStorage over direct byte buffers outside the Java heap
+	 * 
+	 * A single buffer holds at most 2GB, so the values are split into blocks of
+	 * BLOCK floats (256MB) with one buffer each, value i is at i & (BLOCK - 1)
+	 * in block i >> BLOCK_SHIFT
+	 * 
+	 * release() frees the buffers right away through Unsafe.invokeCleaner where the
+	 * runtime allows it, otherwise they are freed once collected
+	 */
+
+	static final int BLOCK_SHIFT = 26, BLOCK = 1 << BLOCK_SHIFT;
+
+	// sun.misc.Unsafe and its invokeCleaner method, null when not accessible
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			System.out.println("direct buffers will be freed by the garbage collector: " + e);
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final int length;
+	private ByteBuffer[] buffers;
+	private FloatBuffer[] blocks;
+
+	// Allocates zeroed direct buffers for length values in native byte order
+	DirectFloatStorage(int length) {
+		this(length, allocateBuffers(length));
+	}
+
+	// Wraps existing buffers, block b holds values b * BLOCK up to BLOCK of them in
+	// the buffer's own byte order
+	DirectFloatStorage(int length, ByteBuffer[] buffers) {
+		this.length = length;
+		this.buffers = buffers;
+		this.blocks = new FloatBuffer[buffers.length];
+		for (int b = 0; b < buffers.length; b++) {
+			blocks[b] = buffers[b].asFloatBuffer();
+		}
+	}
+
+	// Returns the number of blocks needed for length values
+	static int blockCount(int length) {
+		return (int) (((long) length + BLOCK - 1) >> BLOCK_SHIFT);
+	}
+
+	private static ByteBuffer[] allocateBuffers(int length) {
+		ByteBuffer[] buffers = new ByteBuffer[blockCount(length)];
+		for (int b = 0; b < buffers.length; b++) {
+			int count = Math.min(BLOCK, length - b * BLOCK);
+			buffers[b] = ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder());
+		}
+		return buffers;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public float get(int index) {
+		return blocks[index >>> BLOCK_SHIFT].get(index & (BLOCK - 1));
+	}
+
+	@Override
+	public void set(int index, float value) {
+		blocks[index >>> BLOCK_SHIFT].put(index & (BLOCK - 1), value);
+	}
+
+	@Override
+	public void read(int index, float[] dst, int offset, int length) {
+		while (length > 0) {
+			int position = index & (BLOCK - 1);
+			int count = Math.min(length, BLOCK - position);
+			blocks[index >>> BLOCK_SHIFT].get(position, dst, offset, count);
+			index += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public void write(int index, float[] src, int offset, int length) {
+		while (length > 0) {
+			int position = index & (BLOCK - 1);
+			int count = Math.min(length, BLOCK - position);
+			blocks[index >>> BLOCK_SHIFT].put(position, src, offset, count);
+			index += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public float[] array() {
+		return null;
+	}
+
+	@Override
+	public StorageMode getMode() {
+		return StorageMode.DIRECT;
+	}
+
+	@Override
+	public void release() {
+		if (buffers == null) {
+			return;
+		}
+		ByteBuffer[] released = buffers;
+		this.buffers = null;
+		this.blocks = null;
+		if (INVOKE_CLEANER != null) {
+			for (ByteBuffer buffer : released) {
+				try {
+					INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
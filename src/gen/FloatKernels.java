@@ -0,0 +1,92 @@
+package gen;
+
+final class FloatKernels {
+
+	/*
+	 * Elementwise float kernels behind the FloatMap operations
+	 * 
+	 * Every kernel works in place on the index range [from, to) of row-major
+	 * arrays, so callers can run them over a whole map, a band of rows or a
+	 * small buffer and always get the same bits
+	 */
+
+	private FloatKernels() {
+	}
+
+	// Rescales a[i] from [min, max] to [nmin, nmax]
+	static void adjustRange(float[] a, int from, int to, float min, float max, float nmin, float nmax) {
+		for (int i = from; i < to; i++) {
+			a[i] = (float) ((float) ((nmax - nmin) * (float) (a[i] - min)) / (float) (max - min)) + (float) nmin;
+		}
+	}
+
+	// a[i] = max - a[i]
+	static void invert(float[] a, int from, int to, float max) {
+		for (int i = from; i < to; i++) {
+			a[i] = (float) (max - a[i]);
+		}
+	}
+
+	// a[i] = a[i] * b[i]
+	static void blend(float[] a, float[] b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			a[i] = (a[i] * b[i]);
+		}
+	}
+
+	// a[i] = a[i] * w1 + b[i] * w2
+	static void weightedBlend(float[] a, float[] b, int from, int to, float w1, float w2) {
+		for (int i = from; i < to; i++) {
+			a[i] = (a[i] * w1) + (b[i] * w2);
+		}
+	}
+
+	// Multiplies where both values are set, otherwise keeps whichever one is set
+	static void blendEmpty(float[] a, float[] b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == 0.0F && a[i] == 0.0F) {
+				a[i] = 0.0F;
+			} else if (b[i] > 0.0F && a[i] == 0.0F) {
+				a[i] = b[i];
+			} else if (b[i] == 0.0F && a[i] > 0.0F) {
+				// a[i] stays
+			} else {
+				a[i] = (a[i] * b[i]);
+			}
+		}
+	}
+
+	// Multiplies where both values are non-zero, otherwise keeps the non-zero one
+	static void blendAdditive(float[] a, float[] b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == 0.0F) {
+				// a[i] stays
+			} else if (a[i] == 0.0F) {
+				a[i] = b[i];
+			} else {
+				a[i] = (a[i] * b[i]);
+			}
+		}
+	}
+
+	// Adds mod to every value within [min, max]
+	static void addModifier(float[] a, int from, int to, float mod, float min, float max) {
+		for (int i = from; i < to; i++) {
+			if (a[i] >= min && a[i] <= max) {
+				a[i] += mod;
+			}
+		}
+	}
+
+	// Clamps every value to [min, max]
+	static void prune(float[] a, int from, int to, float min, float max) {
+		for (int i = from; i < to; i++) {
+			if (a[i] > max) {
+				a[i] = max;
+			} else if (a[i] < min) {
+				a[i] = min;
+			}
+		}
+	}
+
+}
@@ -2,55 +2,166 @@ package gen;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 
-public class FloatMap {
+public class FloatMap implements MaskFunction {
 
 	/*
-	 * Complex wrapper class for a simple 2-dimensional array of floats Minimum and
+	 * Complex wrapper class for a 2-dimensional grid of floats Minimum and
 	 * maximum values allow for range adjustment and other forms of modification
 	 * Blending occurs in many methods in this class
+	 * 
+	 * Values are stored row by row, (x, y) lives at y * stride + x where the
+	 * stride is the size. The StorageMode picks where: in one float array on the
+	 * heap (the default) or in direct buffers outside of it
+	 * 
+	 * A FloatMap is also the stored form of a MaskFunction
 	 */
 
 	// range of float values
 	private int size;
 	private float min, max;
 
-	// Float values stored
-	private float[][] map;
+	// Float values stored, row-major
+	private FloatStorage storage;
+
+	// Bands of getRGBImage, a value gets the colour after the number of thresholds it is below
+	private static final float[] BAND_THRESHOLDS = { 0.85F, 0.7F, 0.55F, 0.35F, 0.15F, 0.05F };
+	private static final int[] BAND_COLORS = { ImageRaster.pixel(Color.RED), ImageRaster.pixel(Color.ORANGE),
+			ImageRaster.pixel(Color.YELLOW), ImageRaster.pixel(Color.GREEN), ImageRaster.pixel(Color.BLUE),
+			ImageRaster.pixel(Color.DARK_GRAY), ImageRaster.pixel(Color.BLACK), ImageRaster.pixel(Color.PINK) };
+
+	// Pool operations are split over and the smallest map (in values) worth splitting
+	private static volatile ForkJoinPool defaultPool = ForkJoinPool.commonPool();
+	private static volatile int minimumParallelLength = 1 << 18;
 
 	// FloatMap constructor, requires a min and max float value and a size
 	public FloatMap(float min, float max, int size) {
+		this(min, max, size, new float[size * size]);
+	}
+
+	// FloatMap constructor storing the values as selected by mode
+	public FloatMap(float min, float max, int size, StorageMode mode) {
+		this(min, max, size, FloatStorage.allocate(mode, size * size));
+	}
+
+	// FloatMap constructor wrapping existing row-major data of size * size values
+	public FloatMap(float min, float max, int size, float[] data) {
+		if (data.length != size * size) {
+			throw new IllegalArgumentException("expected " + (size * size) + " values, got " + data.length);
+		}
+
 		this.min = min;
 		this.max = max;
 		this.size = size;
+		this.storage = new HeapFloatStorage(data);
+	}
 
-		this.map = new float[size][size];
+	FloatMap(float min, float max, int size, FloatStorage storage) {
+		this.min = min;
+		this.max = max;
+		this.size = size;
+		this.storage = storage;
 	}
 
-	// Sets all float data
+	// Sets all float data from a [x][y] array, the values are copied
 	public void setMap(float[][] map) {
-		this.map = map;
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				storage.set(y * size + x, map[x][y]);
+			}
+		}
 	}
 
 	// Sets specific float value at position
 	public void set(int x, int y, float value) {
-		this.map[x][y] = value;
+		storage.set(y * size + x, value);
 	}
 
-	// Returns the entire value map
+	// Returns a [x][y] copy of the entire value map, changes to it are not written back
 	public float[][] getMap() {
-		return this.map;
+		float[][] map = new float[size][size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				map[x][y] = storage.get(y * size + x);
+			}
+		}
+		return map;
+	}
+
+	// Returns the row-major backing array, (x, y) is at y * getStride() + x
+	// Only HEAP maps have one, getRow and setRow work for every storage mode
+	public float[] getData() {
+		if (isReadOnly()) {
+			throw new UnsupportedOperationException("map is read-only");
+		}
+		float[] data = storage.array();
+		if (data == null) {
+			throw new IllegalStateException("map values are stored " + storage.getMode() + ", not in an array");
+		}
+		return data;
+	}
+
+	FloatStorage getStorage() {
+		return this.storage;
+	}
+
+	// Returns where the values are stored
+	public StorageMode getStorageMode() {
+		return storage.getMode();
+	}
+
+	// Returns whether the map is a read-only view, changing its values throws UnsupportedOperationException
+	public boolean isReadOnly() {
+		return storage instanceof ReadOnlyFloatStorage;
+	}
+
+	// Returns a read-only view of the values with this range, later changes to this map show through
+	FloatMap readOnlyView() {
+		return new FloatMap(min, max, size, new ReadOnlyFloatStorage(storage));
+	}
+
+	// Returns the distance between the starts of two rows in getData()
+	public int getStride() {
+		return this.size;
+	}
+
+	// Copies row y into dst starting at offset
+	public void getRow(int y, float[] dst, int offset) {
+		storage.read(y * size, dst, offset, size);
+	}
+
+	// Copies length values of row y starting at column x into dst starting at offset
+	@Override
+	public void getRow(int y, int x, float[] dst, int offset, int length) {
+		storage.read(y * size + x, dst, offset, length);
+	}
+
+	// The values are already stored, returns this map
+	@Override
+	public FloatMap materialize() {
+		return this;
+	}
+
+	// Copies size values from src starting at offset into row y
+	public void setRow(int y, float[] src, int offset) {
+		storage.write(y * size, src, offset, size);
 	}
 
 	// Returns a float value at a specific point
+	@Override
 	public float get(int x, int y) {
-		return this.map[x][y];
+		return storage.get(y * size + x);
 	}
 
 	// Returns a float value at a specific point using the Point declaration
 	public float get(Point p) {
-		return this.map[p.getX()][p.getY()];
+		return storage.get(p.getY() * size + p.getX());
 	}
 
 	// Returns minimum value
@@ -64,6 +175,7 @@ public class FloatMap {
 	}
 
 	// Returns size of the float map
+	@Override
 	public int getSize() {
 		return this.size;
 	}
@@ -74,256 +186,207 @@ public class FloatMap {
 		this.max = nmax;
 	}
 
-	// Adjusts range of float values on exact scale
-	public void adjustRange(float nmin, float nmax) {
-		float[][] scaled = new float[size][size];
-		// Loop through all values
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				// Rescale value
-				scaled[x][y] = (float) ((float) ((nmax - nmin) * (float) (map[x][y] - min)) / (float) (max - min))
-						+ (float) nmin;
-			}
-		}
+	// Returns statistics of the values actually stored, with a histogram over the declared range
+	public FloatMapStatistics getStatistics(int bins) {
+		return FloatMapStatistics.of(this, bins);
+	}
 
-		// Set globals
-		this.map = scaled;
-		this.min = nmin;
-		this.max = nmax;
+	// Sets the minimum and maximum to the smallest and largest value actually stored
+	public void recomputeRange() {
+		FloatMapStatistics stats = FloatMapStatistics.of(this, 0, 0.0F, 0.0F, null);
+		setRange(stats.getMinimum(), stats.getMaximum());
 	}
 
-	// Inverts the float map
+	// Rescales the values actually stored to exactly [nmin, nmax]
 	/*
-	 * Example: if the min is 0.0 and the max is 1.0 a value of 0.4 would become 0.6
-	 * a value of 0.15 would be 0.85, etc
+	 * adjustRange maps the declared range, which blend and addModifier leave
+	 * stale, so its results may fall outside [nmin, nmax] and need pruneValues.
+	 * This costs one extra read of the data instead
 	 */
-	public void invert() {
-		float[][] invert = new float[size][size];
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				invert[x][y] = (float) (max - map[x][y]);
-			}
-		}
+	public void fitRange(float nmin, float nmax) {
+		recomputeRange();
+		adjustRange(nmin, nmax);
+	}
 
-		this.map = invert;
+	// Returns a copy of the map with its own data
+	public FloatMap copy() {
+		return copy(storage.getMode());
 	}
 
-	// Blends two float maps by multiplying the values
-	public void blend(FloatMap bmap) {
-		float[][] blend = new float[size][size];
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				blend[x][y] = (this.get(x, y) * bmap.get(x, y));
-			}
-		}
+	// Returns a copy of the map with its own data stored as selected by mode
+	public FloatMap copy(StorageMode mode) {
+		FloatStorage copy = FloatStorage.allocate(mode, storage.length());
+		FloatStorage.copy(storage, copy);
+		return new FloatMap(min, max, size, copy);
+	}
 
-		this.map = blend;
+	// Frees the memory holding the values right away for DIRECT maps, the map must not be used afterwards
+	// Maps loaded from a file are unmapped
+	public void release() {
+		storage.release();
+	}
+
+	// Writes the map to a file, see FloatMapFile for the format
+	public void save(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			FloatMapFile.write(this, channel);
+		}
 	}
 
 	/*
-	 * public void weightedBlend(FloatMap bmap, float w1, float w2) { float[][]
-	 * blend = new float[size][size]; for(int x = 0; x < size; x++) { for(int y = 0;
-	 * y < size; y++) { blend[x][y] = (this.get(x, y) * w1) + (bmap.get(x, y) * w2);
-	 * } }
+	 * Loads a map written by save by mapping the file into memory, the map is
+	 * stored DIRECT and its values are only read from disk once used
 	 * 
-	 * this.map = blend; }
+	 * Changes to the map are never written back to the file. If the file is not
+	 * writable the map is read only and operations changing it throw a
+	 * ReadOnlyBufferException, use copy() for a map that can be changed
 	 */
-
-	public void blendEmpty(FloatMap bmap) {
-		float[][] blend = new float[size][size];
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				if (bmap.get(x, y) == 0.0F && this.get(x, y) == 0.0F) {
-					blend[x][y] = 0.0F;
-				} else if (bmap.get(x, y) > 0.0F && this.get(x, y) == 0.0F) {
-					blend[x][y] = bmap.get(x, y);
-				} else if (bmap.get(x, y) == 0.0F && this.get(x, y) > 0.0F) {
-					blend[x][y] = this.get(x, y);
-				} else {
-					blend[x][y] = (this.get(x, y) * bmap.get(x, y));
-				}
-			}
+	public static FloatMap load(File file) throws IOException {
+		boolean writable = Files.isWritable(file.toPath());
+		try (FileChannel channel = writable
+				? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return FloatMapFile.map(channel, 0, writable);
 		}
+	}
 
-		this.map = blend;
+	/*
+	 * Sets the pool every operation and FloatMapExpression.materialize() splits
+	 * maps over, null runs them on the calling thread. The results are the same
+	 * either way
+	 */
+	public static void setDefaultPool(ForkJoinPool pool) {
+		defaultPool = pool;
 	}
 
-	public void blendAdditive(FloatMap bmap) {
-		float[][] blend = new float[size][size];
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				if (bmap.get(x, y) == 0.0F) {
-					blend[x][y] = this.get(x, y);
-				} else if (this.get(x, y) == 0.0F) {
-					blend[x][y] = bmap.get(x, y);
-				} else {
-					blend[x][y] = (this.get(x, y) * bmap.get(x, y));
-				}
-			}
-		}
+	public static ForkJoinPool getDefaultPool() {
+		return defaultPool;
+	}
 
-		this.map = blend;
+	// Sets the smallest number of values split over the pool, each task gets at least this many
+	public static void setMinimumParallelLength(int length) {
+		minimumParallelLength = length;
 	}
 
-	// Add a modifier (mod) to value if within range of [min, max]
-	public void addModifier(float mod, float min, float max) {
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				if (map[x][y] >= min && map[x][y] <= max) {
-					map[x][y] += mod;
-				}
-			}
-		}
+	public static int getMinimumParallelLength() {
+		return minimumParallelLength;
 	}
 
-	public void normalize(int radius, int spacing, float tolerance) throws Exception {
-		// int sec = (spacing / radius);
-		ArrayList<ArrayList<Point>> circles = new ArrayList<ArrayList<Point>>();
-		for (int x1 = spacing; x1 < size; x1 += spacing) {
-			for (int y1 = spacing; y1 < size; y1 += spacing) {
-				if (x1 > size || y1 > size) {
-					continue;
-				}
-				Point c = new Point(x1, y1);
-				ArrayList<Point> circle = new ArrayList<Point>();
-				circle.add(c);
-				for (int x = (x1 - radius); x < (x1 + radius); x++) {
-					for (int y = (y1 - radius); y < (y1 + radius); y++) {
-						if (x > (size - 1) || y > (size - 1) || x < 0 || y < 0) {
-							continue;
-						}
-						Point c2 = new Point(x, y);
-						if (c2.distance(c) <= (float) radius) {
-							circle.add(c2);
-						}
-					}
-				}
-				// System.out.println("normalize cfind: (" + circle.get(0).getX() + "," +
-				// circle.get(0).getY());
-				circles.add(circle);
-			}
-		}
+	// Starts a lazy chain of operations on this map, run in one pass by materialize()
+	public FloatMapExpression lazy() {
+		return new FloatMapExpression(this);
+	}
 
-		for (ArrayList<Point> circle : circles) {
-			// System.out.println("normalize: c=(" + circle.get(0).getX() + ", " +
-			// circle.get(0).getY() + "), r=" + radius);
+	/*
+	 * The operations below all work in place, use copy() or the static
+	 * weightedBlend and blend first where the original is still needed
+	 * 
+	 * Each one runs as a single step FloatMapExpression so it works on every
+	 * storage mode
+	 */
 
-			float average = 0.0F;
-			for (Point p1 : circle) {
-				average += get(p1.getX(), p1.getY());
-			}
+	// Adjusts range of float values on exact scale
+	public void adjustRange(float nmin, float nmax) {
+		lazy().adjustRange(nmin, nmax).materialize();
+	}
 
-			average /= (float) circle.size();
-			for (Point p : circle) {
-				float val = get(p.getX(), p.getY());
-				float distance = p.distance(circle.get(0));
-				float mod = 1.0F - (distance / (float) radius);
-				float adj = tolerance;
-				if (val > average) {
-					if (adj > (val - tolerance)) {
-						adj = (val - tolerance);
-					}
+	// Inverts the float map
+	/*
+	 * Example: if the min is 0.0 and the max is 1.0 a value of 0.4 would become 0.6
+	 * a value of 0.15 would be 0.85, etc
+	 */
+	public void invert() {
+		lazy().invert().materialize();
+	}
 
-					adj = (float) (Math.abs(adj * mod));
-				} else if (val < average) {
-					if (adj > (val + tolerance)) {
-						adj = (val + tolerance);
-					}
+	// Blends two float maps by multiplying the values
+	public void blend(FloatMap bmap) {
+		lazy().blend(bmap).materialize();
+	}
 
-					adj = (float) (Math.abs(adj * mod));
-				}
+	// Blends two float maps by weight, this = this * w1 + bmap * w2
+	public void weightedBlend(FloatMap bmap, float w1, float w2) {
+		lazy().weightedBlend(bmap, w1, w2).materialize();
+	}
 
-				if (!(adj >= 0.0F && adj <= 1.0F)) {
-					System.out.println("adj OOR @ " + p);
-					System.out.println("val=" + val + ", dist=" + distance + ", mod=" + mod + ", adj=" + adj);
-					throw new Exception();
-				}
+	public void blendEmpty(FloatMap bmap) {
+		lazy().blendEmpty(bmap).materialize();
+	}
 
-				set(p.getX(), p.getY(), adj);
-			}
-		}
+	public void blendAdditive(FloatMap bmap) {
+		lazy().blendAdditive(bmap).materialize();
+	}
+
+	// Add a modifier (mod) to value if within range of [min, max]
+	public void addModifier(float mod, float min, float max) {
+		lazy().addModifier(mod, min, max).materialize();
 	}
 
+	// Adjusts every value against the average of the circles of radius centred every spacing pixels
+	// See FloatMapNormalizer, throws if an adjusted value falls outside 0.0 to 1.0
+	public void normalize(int radius, int spacing, float tolerance) throws Exception {
+		FloatMapNormalizer.normalize(this, radius, spacing, tolerance, null);
+	}
+
+	// normalize with the rows split over pool, the result is the same
+	public void normalize(int radius, int spacing, float tolerance, ForkJoinPool pool) throws Exception {
+		FloatMapNormalizer.normalize(this, radius, spacing, tolerance, pool);
+	}
+
+	// Greyscale image of the values, 0.0 is black and 1.0 white, throws for values outside 0.0 to 1.0
 	public BufferedImage getGreyscaleImage() {
-		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				int rgb = (int) (255 * map[x][y]);
-				image.setRGB(x, y, new Color(rgb, rgb, rgb).getRGB());
+		return ImageRaster.write(size, (from, to, pixels) -> {
+			float[] row = new float[size];
+			for (int y = from; y < to; y++) {
+				getRow(y, row, 0);
+				int offset = y * size;
+				for (int x = 0; x < size; x++) {
+					int rgb = (int) (255 * row[x]);
+					if (rgb < 0 || rgb > 255) {
+						throw new IllegalArgumentException("Color parameter outside of expected range: " + rgb);
+					}
+					pixels[offset + x] = ImageRaster.GREY[rgb];
+				}
 			}
-		}
-
-		return image;
+		});
 	}
 
+	// Image of the values in colour bands, RED from 0.85 down to BLACK below 0.05, PINK for NaN
 	public BufferedImage getRGBImage() {
-		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				float val = this.get(x, y);
-				Color c = Color.PINK;
-				if (val >= 0.85F) {
-					c = Color.RED;
-				} else if (val < 0.85F && val >= 0.7F) {
-					c = Color.ORANGE;
-				} else if (val < 0.7F && val >= 0.55F) {
-					c = Color.YELLOW;
-				} else if (val < 0.55F && val >= 0.35F) {
-					c = Color.GREEN;
-				} else if (val < 0.35F && val >= 0.15F) {
-					c = Color.BLUE;
-				} else if (val < 0.15F && val >= 0.05F) {
-					c = Color.DARK_GRAY;
-				} else if (val < 0.05F) {
-					c = Color.BLACK;
+		return ImageRaster.write(size, (from, to, pixels) -> {
+			float[] row = new float[size];
+			for (int y = from; y < to; y++) {
+				getRow(y, row, 0);
+				int offset = y * size;
+				for (int x = 0; x < size; x++) {
+					float val = row[x];
+					int band = 0;
+					for (float threshold : BAND_THRESHOLDS) {
+						band += val < threshold ? 1 : 0;
+					}
+					pixels[offset + x] = BAND_COLORS[val == val ? band : BAND_COLORS.length - 1];
 				}
-
-				image.setRGB(x, y, c.getRGB());
 			}
-		}
-
-		return image;
+		});
 	}
 
 	public static FloatMap weightedBlend(FloatMap fmap, FloatMap bmap, float w1, float w2) {
-		float[][] blend = new float[bmap.getSize()][bmap.getSize()];
-		for (int x = 0; x < bmap.getSize(); x++) {
-			for (int y = 0; y < bmap.getSize(); y++) {
-				blend[x][y] = (fmap.get(x, y) * w1) + (bmap.get(x, y) * w2);
-			}
-		}
-
-		FloatMap blendmp = new FloatMap(fmap.getMinimum(), fmap.getMaximum(), fmap.getSize());
-		blendmp.setMap(blend);
+		FloatMap blendmp = fmap.copy();
+		blendmp.weightedBlend(bmap, w1, w2);
 		return blendmp;
 	}
 
 	// Blend without modifying one map, maps must be same size, same min and max
 	public static FloatMap blend(FloatMap fmp1, FloatMap fmp2) {
-		int size = fmp1.getSize();
-		float[][] blend = new float[size][size];
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				blend[x][y] = (fmp1.get(x, y) * fmp2.get(x, y));
-			}
-		}
-
-		FloatMap fmap = new FloatMap(fmp1.getMinimum(), fmp1.getMaximum(), size);
-		fmap.setMap(blend);
+		FloatMap fmap = fmp1.copy();
+		fmap.blend(fmp2);
 		return fmap;
 	}
 
 	// Force all values within range, loses accuracy
 	public void pruneValues() {
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				if (get(x, y) > max) {
-					set(x, y, max);
-				} else if (get(x, y) < min) {
-					set(x, y, min);
-				}
-			}
-		}
+		lazy().pruneValues().materialize();
 	}
 
 }
@@ -0,0 +1,363 @@
+package gen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class FloatMapExpression {
+
+	/*
+	 * Lazy chain of FloatMap operations, started with FloatMap.lazy()
+	 *
+	 * Operations are only recorded until materialize(), which then runs the whole
+	 * chain in one pass over the map: the data is walked in chunks small enough to
+	 * stay in cache and every recorded step is applied to a chunk before moving to
+	 * the next one. A chain of n operations touches main memory once instead of n
+	 * times and gives the same bits as calling the operations one by one
+	 *
+	 * Steps that depend on the range (adjustRange, invert, pruneValues) use the
+	 * declared minimum and maximum, which are tracked while recording, so they
+	 * need no extra pass over the data
+	 *
+	 * Operands of the blends may be maps or other expressions, an expression
+	 * operand is evaluated chunk by chunk along with this one and written back to
+	 * its own map. Like the eager operations everything is done in place on the
+	 * source map, each expression can be materialized or used as an operand once
+	 * 
+	 * Operands may also be a MaskFunction, which is evaluated into a chunk buffer
+	 * of its own and never stored as a whole map
+	 * 
+	 * Maps stored outside of an array (see StorageMode) are read into a chunk
+	 * buffer, worked on there and written back. When any map taking part is, or
+	 * a MaskFunction takes part, all of them go through buffers so operands
+	 * always line up with their chunk
+	 * 
+	 * Chunks are independent, so materialize can split them over a ForkJoinPool
+	 * (FloatMap.setDefaultPool) with the same bits as a serial run. Maps smaller
+	 * than the minimum parallel length stay on the calling thread
+	 */
+
+	// Values per chunk, 16KB of floats so a few operands still fit in L1
+	private static final int CHUNK = 4096;
+
+	// A recorded operation on a[from, to), chunks holds the current chunk of every node by id
+	private interface Step {
+		void apply(float[] a, int from, int to, float[][] chunks);
+	}
+
+	private final FloatMap source;
+	private final FloatStorage storage;
+	private final List<Step> steps = new ArrayList<Step>();
+	private final List<FloatMapExpression> operands = new ArrayList<FloatMapExpression>();
+	private final List<FunctionOperand> functions = new ArrayList<FunctionOperand>();
+
+	// range of the values after the recorded steps
+	private float min, max;
+
+	private boolean used = false;
+
+	// Position in the expression tree while materializing, and whether chunks go through buffers
+	private int id;
+	private boolean buffered;
+
+	// FloatMapExpression constructor, records operations on top of source
+	FloatMapExpression(FloatMap source) {
+		this.source = source;
+		this.storage = source.getStorage();
+		this.min = source.getMinimum();
+		this.max = source.getMaximum();
+	}
+
+	// Adjusts range of float values on exact scale
+	public FloatMapExpression adjustRange(final float nmin, final float nmax) {
+		final float omin = min, omax = max;
+		steps.add((a, from, to, chunks) -> FloatKernels.adjustRange(a, from, to, omin, omax, nmin, nmax));
+		this.min = nmin;
+		this.max = nmax;
+		return this;
+	}
+
+	// Inverts the values within the current range
+	public FloatMapExpression invert() {
+		final float omax = max;
+		steps.add((a, from, to, chunks) -> FloatKernels.invert(a, from, to, omax));
+		return this;
+	}
+
+	// Blends by multiplying the values
+	public FloatMapExpression blend(FloatMap bmap) {
+		return blend(bmap.lazy());
+	}
+
+	public FloatMapExpression blend(FloatMapExpression operand) {
+		addOperand(operand);
+		steps.add((a, from, to, chunks) -> FloatKernels.blend(a, chunks[operand.id], from, to));
+		return this;
+	}
+
+	public FloatMapExpression blend(MaskFunction mask) {
+		if (mask instanceof FloatMap) {
+			return blend((FloatMap) mask);
+		}
+		FunctionOperand operand = addFunction(mask);
+		steps.add((a, from, to, chunks) -> FloatKernels.blend(a, chunks[operand.id], from, to));
+		return this;
+	}
+
+	// Blends by weight, this * w1 + operand * w2
+	public FloatMapExpression weightedBlend(FloatMap bmap, float w1, float w2) {
+		return weightedBlend(bmap.lazy(), w1, w2);
+	}
+
+	public FloatMapExpression weightedBlend(FloatMapExpression operand, final float w1, final float w2) {
+		addOperand(operand);
+		steps.add((a, from, to, chunks) -> FloatKernels.weightedBlend(a, chunks[operand.id], from, to, w1, w2));
+		return this;
+	}
+
+	public FloatMapExpression weightedBlend(MaskFunction mask, final float w1, final float w2) {
+		if (mask instanceof FloatMap) {
+			return weightedBlend((FloatMap) mask, w1, w2);
+		}
+		FunctionOperand operand = addFunction(mask);
+		steps.add((a, from, to, chunks) -> FloatKernels.weightedBlend(a, chunks[operand.id], from, to, w1, w2));
+		return this;
+	}
+
+	public FloatMapExpression blendEmpty(FloatMap bmap) {
+		return blendEmpty(bmap.lazy());
+	}
+
+	public FloatMapExpression blendEmpty(FloatMapExpression operand) {
+		addOperand(operand);
+		steps.add((a, from, to, chunks) -> FloatKernels.blendEmpty(a, chunks[operand.id], from, to));
+		return this;
+	}
+
+	public FloatMapExpression blendEmpty(MaskFunction mask) {
+		if (mask instanceof FloatMap) {
+			return blendEmpty((FloatMap) mask);
+		}
+		FunctionOperand operand = addFunction(mask);
+		steps.add((a, from, to, chunks) -> FloatKernels.blendEmpty(a, chunks[operand.id], from, to));
+		return this;
+	}
+
+	public FloatMapExpression blendAdditive(FloatMap bmap) {
+		return blendAdditive(bmap.lazy());
+	}
+
+	public FloatMapExpression blendAdditive(FloatMapExpression operand) {
+		addOperand(operand);
+		steps.add((a, from, to, chunks) -> FloatKernels.blendAdditive(a, chunks[operand.id], from, to));
+		return this;
+	}
+
+	public FloatMapExpression blendAdditive(MaskFunction mask) {
+		if (mask instanceof FloatMap) {
+			return blendAdditive((FloatMap) mask);
+		}
+		FunctionOperand operand = addFunction(mask);
+		steps.add((a, from, to, chunks) -> FloatKernels.blendAdditive(a, chunks[operand.id], from, to));
+		return this;
+	}
+
+	// Add a modifier (mod) to value if within range of [min, max]
+	public FloatMapExpression addModifier(final float mod, final float min, final float max) {
+		steps.add((a, from, to, chunks) -> FloatKernels.addModifier(a, from, to, mod, min, max));
+		return this;
+	}
+
+	// Force all values within the current range
+	public FloatMapExpression pruneValues() {
+		final float omin = min, omax = max;
+		steps.add((a, from, to, chunks) -> FloatKernels.prune(a, from, to, omin, omax));
+		return this;
+	}
+
+	// Runs all recorded steps in one pass and returns the source map holding the result
+	// Runs on FloatMap.getDefaultPool for maps of at least FloatMap.getMinimumParallelLength values
+	public FloatMap materialize() {
+		return materialize(FloatMap.getDefaultPool());
+	}
+
+	// materialize on pool, or on the calling thread when pool is null
+	public FloatMap materialize(ForkJoinPool pool) {
+		claim();
+		int nodes = prepare(0, !inArrays());
+		int length = storage.length();
+		int chunks = (length + CHUNK - 1) / CHUNK;
+		int leaf = Math.max(1, FloatMap.getMinimumParallelLength() / CHUNK);
+		if (pool == null || chunks <= leaf) {
+			evaluateChunks(0, chunks, nodes);
+		} else {
+			pool.invoke(new ChunkTask(0, chunks, leaf, nodes));
+		}
+		finish();
+		return source;
+	}
+
+	// Returns the range the values will have once materialized
+	public float getMinimum() {
+		return min;
+	}
+
+	public float getMaximum() {
+		return max;
+	}
+
+	private void addOperand(FloatMapExpression operand) {
+		if (operand.source.getSize() != source.getSize()) {
+			throw new IllegalArgumentException(
+					"operand size " + operand.source.getSize() + " does not match " + source.getSize());
+		}
+		operand.claim();
+		operands.add(operand);
+	}
+
+	private FunctionOperand addFunction(MaskFunction mask) {
+		if (mask.getSize() != source.getSize()) {
+			throw new IllegalArgumentException("mask size " + mask.getSize() + " does not match " + source.getSize());
+		}
+		FunctionOperand operand = new FunctionOperand(mask);
+		functions.add(operand);
+		return operand;
+	}
+
+	private void claim() {
+		if (used) {
+			throw new IllegalStateException("expression already materialized or used as an operand");
+		}
+		used = true;
+	}
+
+	// Returns whether this map and every operand keep their values in an array
+	private boolean inArrays() {
+		for (FloatMapExpression operand : operands) {
+			if (!operand.inArrays()) {
+				return false;
+			}
+		}
+		return functions.isEmpty() && storage.array() != null;
+	}
+
+	// Numbers the nodes of the tree from first, returns the next free number
+	private int prepare(int first, boolean buffered) {
+		this.id = first;
+		this.buffered = buffered;
+		int next = first + 1;
+		for (FloatMapExpression operand : operands) {
+			next = operand.prepare(next, buffered);
+		}
+		for (FunctionOperand operand : functions) {
+			operand.id = next++;
+		}
+		return next;
+	}
+
+	// Evaluates chunks [from, to) with buffers of its own, so ranges can run concurrently
+	private void evaluateChunks(int from, int to, int nodes) {
+		float[][] chunks = new float[nodes][];
+		float[][] buffers = new float[nodes][];
+		if (buffered) {
+			for (int n = 0; n < nodes; n++) {
+				buffers[n] = new float[CHUNK];
+			}
+		}
+
+		int length = storage.length();
+		for (int c = from; c < to; c++) {
+			evaluate(c * CHUNK, Math.min((c + 1) * CHUNK, length), chunks, buffers);
+		}
+	}
+
+	// Evaluates the operands, then applies every step to values [from, to) of the source
+	// Afterwards chunks[id] holds the chunk, at from or at 0 when buffered
+	private void evaluate(int from, int to, float[][] chunks, float[][] buffers) {
+		for (FloatMapExpression operand : operands) {
+			operand.evaluate(from, to, chunks, buffers);
+		}
+		for (FunctionOperand operand : functions) {
+			operand.evaluate(from, to, chunks, buffers);
+		}
+
+		if (!buffered) {
+			float[] a = storage.array();
+			chunks[id] = a;
+			for (Step step : steps) {
+				step.apply(a, from, to, chunks);
+			}
+		} else {
+			float[] a = buffers[id];
+			chunks[id] = a;
+			storage.read(from, a, 0, to - from);
+			for (Step step : steps) {
+				step.apply(a, 0, to - from, chunks);
+			}
+			if (!steps.isEmpty()) {
+				storage.write(from, a, 0, to - from);
+			}
+		}
+	}
+
+	// Publishes the final ranges once every chunk is done
+	private void finish() {
+		for (FloatMapExpression operand : operands) {
+			operand.finish();
+		}
+		source.setRange(min, max);
+	}
+
+	// A MaskFunction operand, only ever evaluated into buffers
+	private static class FunctionOperand {
+
+		private final MaskFunction mask;
+		private int id;
+
+		FunctionOperand(MaskFunction mask) {
+			this.mask = mask;
+		}
+
+		// Evaluates values [from, to) of the mask into its buffer, row piece by row piece
+		void evaluate(int from, int to, float[][] chunks, float[][] buffers) {
+			float[] a = buffers[id];
+			chunks[id] = a;
+			int size = mask.getSize();
+			for (int i = from; i < to;) {
+				int y = i / size, x = i - y * size;
+				int length = Math.min(size - x, to - i);
+				mask.getRow(y, x, a, i - from, length);
+				i += length;
+			}
+		}
+
+	}
+
+	// Splits chunks [from, to) down to leaf chunks per task
+	private class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to, leaf, nodes;
+
+		ChunkTask(int from, int to, int leaf, int nodes) {
+			this.from = from;
+			this.to = to;
+			this.leaf = leaf;
+			this.nodes = nodes;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > leaf) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ChunkTask(from, mid, leaf, nodes), new ChunkTask(mid, to, leaf, nodes));
+			} else {
+				evaluateChunks(from, to, nodes);
+			}
+		}
+
+	}
+
+}
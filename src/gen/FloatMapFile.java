@@ -0,0 +1,111 @@
+package gen;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+final class FloatMapFile {
+
+	/*
+	 * On disk format of a FloatMap, every value little-endian
+	 * 
+	 * int magic ('FMAP'), int version, int size, float min, float max, followed by
+	 * size * size floats row by row
+	 * 
+	 * Maps are written through a FileChannel and read back by mapping the floats
+	 * into memory, nothing is copied up front and pages are only read from disk
+	 * once touched. The same layout is embedded in World files
+	 */
+
+	static final int MAGIC = 0x464D4150, VERSION = 1, HEADER = 20;
+
+	// Floats converted per write
+	private static final int CHUNK = 16384;
+
+	private FloatMapFile() {
+	}
+
+	// Returns the number of bytes a map of size takes
+	static long length(int size) {
+		return HEADER + 4L * size * size;
+	}
+
+	// Writes the map at the channel's position
+	static void write(FloatMap map, FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(map.getSize());
+		header.putFloat(map.getMinimum()).putFloat(map.getMaximum());
+		header.flip();
+		writeFully(channel, header);
+
+		FloatStorage storage = map.getStorage();
+		ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK * 4).order(ByteOrder.LITTLE_ENDIAN);
+		FloatBuffer floats = bytes.asFloatBuffer();
+		float[] chunk = new float[CHUNK];
+		for (int i = 0; i < storage.length(); i += CHUNK) {
+			int count = Math.min(CHUNK, storage.length() - i);
+			storage.read(i, chunk, 0, count);
+			floats.clear();
+			floats.put(chunk, 0, count);
+			bytes.clear().limit(count * 4);
+			writeFully(channel, bytes);
+		}
+	}
+
+	/*
+	 * Maps the map written at position into memory as a DIRECT FloatMap
+	 * 
+	 * With writable set the mapping is private: the map can be changed but the
+	 * changes never reach the file. Otherwise it is read only and every operation
+	 * changing it throws a ReadOnlyBufferException
+	 */
+	static FloatMap map(FileChannel channel, long position, boolean writable) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header, position);
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			throw new IOException("not a FloatMap at " + position);
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("unsupported FloatMap version " + version);
+		}
+		int size = header.getInt();
+		float min = header.getFloat(), max = header.getFloat();
+		if (size <= 0 || (long) size * size > Integer.MAX_VALUE) {
+			throw new IOException("invalid FloatMap size " + size);
+		}
+		if (channel.size() < position + length(size)) {
+			throw new EOFException("FloatMap of size " + size + " is truncated");
+		}
+
+		int length = size * size;
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.PRIVATE : FileChannel.MapMode.READ_ONLY;
+		ByteBuffer[] buffers = new ByteBuffer[DirectFloatStorage.blockCount(length)];
+		for (int b = 0; b < buffers.length; b++) {
+			long start = position + HEADER + 4L * b * DirectFloatStorage.BLOCK;
+			int count = Math.min(DirectFloatStorage.BLOCK, length - b * DirectFloatStorage.BLOCK);
+			buffers[b] = channel.map(mode, start, 4L * count).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		return new FloatMap(min, max, size, new DirectFloatStorage(length, buffers));
+	}
+
+	static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("unexpected end of file at " + (position + buffer.position()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package gen;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class FloatMapNormalizer {
+
+	/*
+	 * Local normalization behind FloatMap.normalize
+	 *
+	 * Circles of the radius are centred every spacing pixels (spacing, 2 *
+	 * spacing, ... on both axes). Every pixel within a circle is adjusted
+	 * against the average of that circle, scaled down with its distance from the
+	 * centre
+	 *
+	 * Works in two passes over the rows without any per pixel objects:
+	 *
+	 * 1. Averages: every row is turned into prefix sums, so the part of a circle on
+	 * that row is summed with one subtraction. A circle costs O(radius), O(1 /
+	 * radius) per pixel it covers
+	 *
+	 * 2. Adjustment: every row is adjusted against the circles covering it, last
+	 * circle (in centre x, then centre y order) first, and each pixel only by the
+	 * first circle that reaches it
+	 *
+	 * Averages are taken from the values before normalizing and each pixel is set
+	 * from its own value before normalizing by the last circle covering it. Where
+	 * circles do not overlap (spacing of at least twice the radius) this is what
+	 * the list based version did, including counting the centre twice in the
+	 * average and adjusting it twice. Where they overlap the list based version
+	 * fed circles partly adjusted values, this one does not, which keeps the
+	 * result independent of the order circles and rows are processed in, so rows
+	 * can be split over a ForkJoinPool with identical results
+	 */
+
+	// Rows per parallel task in the adjustment pass
+	private static final int BAND = 16;
+
+	private final FloatMap map;
+	private final int size, radius, spacing;
+	private final float tolerance;
+
+	// Circle centres per axis, centre i is at (i + 1) * spacing
+	private final int centres;
+
+	// span[|dy|] is the largest dx with (dx, dy) within the radius, -1 for none
+	private final int[] span;
+
+	// Circle averages, index centre y * centres + centre x
+	private final float[] averages;
+
+	private FloatMapNormalizer(FloatMap map, int radius, int spacing, float tolerance) {
+		this.map = map;
+		this.size = map.getSize();
+		this.radius = radius;
+		this.spacing = spacing;
+		this.tolerance = tolerance;
+		this.centres = Math.max(0, (size - 1) / spacing);
+		this.averages = new float[centres * centres];
+
+		// Same test as Point.distance(c) <= radius, one search per row offset
+		this.span = new int[radius + 1];
+		for (int dy = 0; dy <= radius; dy++) {
+			int dx = (int) Math.sqrt((double) radius * radius - (double) dy * dy);
+			while (dx < radius && within(dx + 1, dy)) {
+				dx++;
+			}
+			while (dx >= 0 && !within(dx, dy)) {
+				dx--;
+			}
+			span[dy] = dx;
+		}
+	}
+
+	// Normalizes map in place, on the calling thread when pool is null
+	static void normalize(FloatMap map, int radius, int spacing, float tolerance, ForkJoinPool pool) {
+		if (radius < 1 || spacing < 1) {
+			throw new IllegalArgumentException("radius and spacing must be at least 1, got " + radius + " and " + spacing);
+		}
+
+		FloatMapNormalizer normalizer = new FloatMapNormalizer(map, radius, spacing, tolerance);
+		int bands = (normalizer.size + BAND - 1) / BAND;
+		if (pool == null) {
+			normalizer.average(0, normalizer.centres);
+			normalizer.adjust(0, bands);
+		} else {
+			pool.invoke(normalizer.new RangeTask(0, normalizer.centres, true));
+			pool.invoke(normalizer.new RangeTask(0, bands, false));
+		}
+	}
+
+	private boolean within(int dx, int dy) {
+		return (float) Math.hypot(dy, dx) <= (float) radius;
+	}
+
+	// Computes the averages of the circles centred on centre rows [from, to)
+	private void average(int from, int to) {
+		float[] row = new float[size];
+		double[] prefix = new double[size + 1];
+		double[] sums = new double[centres];
+		int[] counts = new int[centres];
+
+		for (int j = from; j < to; j++) {
+			int y1 = (j + 1) * spacing;
+			Arrays.fill(sums, 0.0D);
+			Arrays.fill(counts, 0);
+
+			for (int y = Math.max(0, y1 - radius); y <= Math.min(size - 1, y1 + radius - 1); y++) {
+				int h = span[Math.abs(y - y1)];
+				if (h < 0) {
+					continue;
+				}
+				map.getRow(y, row, 0);
+				for (int x = 0; x < size; x++) {
+					prefix[x + 1] = prefix[x] + row[x];
+				}
+
+				for (int i = 0; i < centres; i++) {
+					int x1 = (i + 1) * spacing;
+					int xa = Math.max(0, x1 - h), xb = Math.min(size - 1, x1 + Math.min(h, radius - 1));
+					if (xa <= xb) {
+						sums[i] += prefix[xb + 1] - prefix[xa];
+						counts[i] += xb - xa + 1;
+					}
+					// The centre is counted twice
+					if (y == y1) {
+						sums[i] += row[x1];
+						counts[i]++;
+					}
+				}
+			}
+
+			for (int i = 0; i < centres; i++) {
+				averages[j * centres + i] = (float) (sums[i] / counts[i]);
+			}
+		}
+	}
+
+	// Adjusts the rows of bands [from, to)
+	private void adjust(int from, int to) {
+		float[] row = new float[size], out = new float[size];
+		boolean[] done = new boolean[size];
+
+		for (int y = from * BAND; y < Math.min(size, to * BAND); y++) {
+			map.getRow(y, row, 0);
+			System.arraycopy(row, 0, out, 0, size);
+			Arrays.fill(done, false);
+			int remaining = size;
+
+			// Centre rows y1 with y - y1 within [-radius, radius - 1]
+			int jmin = Math.max(0, ceilDiv(y - radius + 1, spacing) - 1);
+			int jmax = Math.min(centres - 1, Math.floorDiv(y + radius, spacing) - 1);
+
+			// Last circle first, the first one reaching a pixel sets it
+			for (int i = centres - 1; i >= 0 && remaining > 0; i--) {
+				int x1 = (i + 1) * spacing;
+				for (int j = jmax; j >= jmin && remaining > 0; j--) {
+					int y1 = (j + 1) * spacing, dy = y - y1;
+					int h = span[Math.abs(dy)];
+					if (h < 0) {
+						continue;
+					}
+					float average = averages[j * centres + i];
+					int xa = Math.max(0, x1 - h), xb = Math.min(size - 1, x1 + Math.min(h, radius - 1));
+					for (int x = xa; x <= xb; x++) {
+						if (done[x]) {
+							continue;
+						}
+						done[x] = true;
+						remaining--;
+
+						int dx = x - x1;
+						float distance = (float) Math.sqrt(dx * dx + dy * dy);
+						float mod = 1.0F - (distance / (float) radius);
+						float adj = adjustValue(row[x], average, mod, x, y, distance);
+						// The centre is adjusted twice
+						if (dx == 0 && dy == 0) {
+							adj = adjustValue(adj, average, mod, x, y, distance);
+						}
+						out[x] = adj;
+					}
+				}
+			}
+
+			map.setRow(y, out, 0);
+		}
+	}
+
+	// The adjustment of a single value, throws if the result falls outside 0.0 to 1.0
+	private float adjustValue(float val, float average, float mod, int x, int y, float distance) {
+		float adj = tolerance;
+		if (val > average) {
+			if (adj > (val - tolerance)) {
+				adj = (val - tolerance);
+			}
+
+			adj = (float) (Math.abs(adj * mod));
+		} else if (val < average) {
+			if (adj > (val + tolerance)) {
+				adj = (val + tolerance);
+			}
+
+			adj = (float) (Math.abs(adj * mod));
+		}
+
+		if (!(adj >= 0.0F && adj <= 1.0F)) {
+			System.out.println("adj OOR @ " + new Point(x, y));
+			System.out.println("val=" + val + ", dist=" + distance + ", mod=" + mod + ", adj=" + adj);
+			throw new IllegalStateException("normalized value " + adj + " out of range at " + new Point(x, y));
+		}
+		return adj;
+	}
+
+	private static int ceilDiv(int a, int b) {
+		return -Math.floorDiv(-a, b);
+	}
+
+	// Splits [from, to) of centre rows or bands over the pool
+	private class RangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+		private final boolean averagePass;
+
+		RangeTask(int from, int to, boolean averagePass) {
+			this.from = from;
+			this.to = to;
+			this.averagePass = averagePass;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new RangeTask(from, mid, averagePass), new RangeTask(mid, to, averagePass));
+			} else if (averagePass) {
+				average(from, to);
+			} else {
+				adjust(from, to);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+package gen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class FloatMapStatistics {
+
+	/*
+	 * Statistics of the actual values of a FloatMap, gathered in one pass
+	 *
+	 * The minimum and maximum of a FloatMap are the declared range, operations
+	 * like blend or addModifier do not update them. These are computed from the
+	 * data: minimum, maximum, mean, variance and a histogram with a fixed number of
+	 * bins over a chosen range
+	 *
+	 * The map is read in chunks that stay in cache. Each chunk is summed with
+	 * plain loops the JIT can vectorize, then chunks are merged pairwise (Chan et
+	 * al.), which keeps the variance accurate for large maps. The map is split the
+	 * same way whether it runs serially or on a ForkJoinPool, so both give the
+	 * same results
+	 */
+
+	// Values per chunk
+	private static final int CHUNK = 4096;
+
+	// Values below which a range is no longer split
+	private static final int LEAF = 64 * CHUNK;
+
+	private long count;
+	private float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+	private double mean, m2;
+
+	// Histogram over [low, high], values outside it are only counted in below and above
+	private final float low, high;
+	private final int[] histogram;
+	private long below, above;
+
+	private FloatMapStatistics(int bins, float low, float high) {
+		this.low = low;
+		this.high = high;
+		this.histogram = new int[bins];
+	}
+
+	/*
+	 * Gathers statistics of every value of map with a histogram of bins bins
+	 * spread evenly over [low, high]. Pool may be null to run on the calling
+	 * thread, bins may be 0 to skip the histogram
+	 */
+	public static FloatMapStatistics of(FloatMap map, int bins, float low, float high, ForkJoinPool pool) {
+		if (bins < 0 || (bins > 0 && !(high > low))) {
+			throw new IllegalArgumentException("invalid histogram of " + bins + " bins over [" + low + ", " + high + "]");
+		}
+
+		FloatStorage storage = map.getStorage();
+		if (pool == null) {
+			return compute(storage, 0, storage.length(), bins, low, high);
+		}
+		return pool.invoke(new StatisticsTask(storage, 0, storage.length(), bins, low, high));
+	}
+
+	// Statistics with a histogram of bins bins over the declared range of the map
+	public static FloatMapStatistics of(FloatMap map, int bins) {
+		return of(map, bins, map.getMinimum(), map.getMaximum(), null);
+	}
+
+	// Number of values
+	public long getCount() {
+		return count;
+	}
+
+	// Smallest value
+	public float getMinimum() {
+		return min;
+	}
+
+	// Largest value
+	public float getMaximum() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	// Population variance
+	public double getVariance() {
+		return count > 0 ? m2 / count : 0.0D;
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	// Counts per bin, bin i covers low + i * (high - low) / bins up to the next bin, the last one includes high
+	public int[] getHistogram() {
+		return histogram.clone();
+	}
+
+	public float getHistogramLow() {
+		return low;
+	}
+
+	public float getHistogramHigh() {
+		return high;
+	}
+
+	// Number of values below the histogram range
+	public long getBelow() {
+		return below;
+	}
+
+	// Number of values above the histogram range
+	public long getAbove() {
+		return above;
+	}
+
+	// Statistics of values [from, to), split in halves down to LEAF values
+	private static FloatMapStatistics compute(FloatStorage storage, int from, int to, int bins, float low,
+			float high) {
+		if (to - from > LEAF) {
+			int mid = split(from, to);
+			FloatMapStatistics stats = compute(storage, from, mid, bins, low, high);
+			stats.merge(compute(storage, mid, to, bins, low, high));
+			return stats;
+		}
+		return leaf(storage, from, to, bins, low, high);
+	}
+
+	// Splits at a chunk boundary so both halves read whole chunks
+	private static int split(int from, int to) {
+		int chunks = (to - from + CHUNK - 1) / CHUNK;
+		return from + (chunks / 2) * CHUNK;
+	}
+
+	private static FloatMapStatistics leaf(FloatStorage storage, int from, int to, int bins, float low,
+			float high) {
+		FloatMapStatistics stats = new FloatMapStatistics(bins, low, high);
+		float[] data = storage.array();
+		float[] buffer = data == null ? new float[CHUNK] : null;
+		FloatMapStatistics chunk = new FloatMapStatistics(0, low, high);
+		for (int start = from; start < to; start += CHUNK) {
+			int end = Math.min(start + CHUNK, to);
+			if (data == null) {
+				storage.read(start, buffer, 0, end - start);
+				chunk.accumulate(buffer, 0, end - start);
+				stats.bin(buffer, 0, end - start);
+			} else {
+				chunk.accumulate(data, start, end);
+				stats.bin(data, start, end);
+			}
+			stats.merge(chunk);
+		}
+		return stats;
+	}
+
+	// Sets count, min, max, mean and m2 to those of a[from, to)
+	private void accumulate(float[] a, int from, int to) {
+		float lo = Float.POSITIVE_INFINITY, hi = Float.NEGATIVE_INFINITY;
+		double sum = 0.0D;
+		for (int i = from; i < to; i++) {
+			float val = a[i];
+			lo = Math.min(lo, val);
+			hi = Math.max(hi, val);
+			sum += val;
+		}
+
+		// Deviations from the chunk mean, the chunk is still in cache
+		double chunkMean = sum / (to - from), squares = 0.0D;
+		for (int i = from; i < to; i++) {
+			double deviation = a[i] - chunkMean;
+			squares += deviation * deviation;
+		}
+
+		this.count = to - from;
+		this.min = lo;
+		this.max = hi;
+		this.mean = chunkMean;
+		this.m2 = squares;
+	}
+
+	// Adds the values of a[from, to) to the histogram
+	private void bin(float[] a, int from, int to) {
+		int bins = histogram.length;
+		if (bins == 0) {
+			return;
+		}
+		float scale = bins / (high - low);
+		for (int i = from; i < to; i++) {
+			float val = a[i];
+			if (val < low) {
+				below++;
+			} else if (val > high) {
+				above++;
+			} else {
+				histogram[Math.min((int) ((val - low) * scale), bins - 1)]++;
+			}
+		}
+	}
+
+	// Merges other into this, both cover disjoint values
+	private void merge(FloatMapStatistics other) {
+		if (other.count == 0) {
+			return;
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		this.mean += delta * other.count / total;
+		this.m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		this.count = total;
+		this.min = Math.min(min, other.min);
+		this.max = Math.max(max, other.max);
+
+		for (int i = 0; i < histogram.length && i < other.histogram.length; i++) {
+			histogram[i] += other.histogram[i];
+		}
+		this.below += other.below;
+		this.above += other.above;
+	}
+
+	// Splits like compute, running the halves in parallel
+	private static class StatisticsTask extends RecursiveTask<FloatMapStatistics> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FloatStorage storage;
+		private final int from, to, bins;
+		private final float low, high;
+
+		StatisticsTask(FloatStorage storage, int from, int to, int bins, float low, float high) {
+			this.storage = storage;
+			this.from = from;
+			this.to = to;
+			this.bins = bins;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected FloatMapStatistics compute() {
+			if (to - from > LEAF) {
+				int mid = split(from, to);
+				StatisticsTask right = new StatisticsTask(storage, mid, to, bins, low, high);
+				right.fork();
+				FloatMapStatistics stats = new StatisticsTask(storage, from, mid, bins, low, high).compute();
+				stats.merge(right.join());
+				return stats;
+			}
+			return leaf(storage, from, to, bins, low, high);
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+package gen;
+
+interface FloatStorage {
+
+	/*
+	 * Backing store of a FloatMap, values are addressed by their row-major index
+	 * 
+	 * Bulk reads and writes move blocks of values between the store and float
+	 * arrays, which is how FloatMap operations work on stores that are not arrays
+	 */
+
+	// Number of values stored
+	int length();
+
+	float get(int index);
+
+	void set(int index, float value);
+
+	// Copies length values starting at index into dst starting at offset
+	void read(int index, float[] dst, int offset, int length);
+
+	// Copies length values from src starting at offset into the store starting at index
+	void write(int index, float[] src, int offset, int length);
+
+	// Returns the backing array, or null when the values are not kept in one
+	float[] array();
+
+	StorageMode getMode();
+
+	// Frees the memory held, the store must not be used afterwards
+	void release();
+
+	// Allocates a zeroed store of length values
+	static FloatStorage allocate(StorageMode mode, int length) {
+		switch (mode) {
+		case DIRECT:
+			return new DirectFloatStorage(length);
+		case UNORM16:
+			return new UnormFloatStorage(16, length);
+		case HALF:
+			return new HalfFloatStorage(length);
+		case UNORM8:
+			return new UnormFloatStorage(8, length);
+		default:
+			return new HeapFloatStorage(new float[length]);
+		}
+	}
+
+	// Copies every value of src into dst, both must have the same length
+	static void copy(FloatStorage src, FloatStorage dst) {
+		if (src.array() != null) {
+			dst.write(0, src.array(), 0, src.length());
+		} else if (dst.array() != null) {
+			src.read(0, dst.array(), 0, src.length());
+		} else {
+			float[] chunk = new float[4096];
+			for (int i = 0; i < src.length(); i += chunk.length) {
+				int n = Math.min(chunk.length, src.length() - i);
+				src.read(i, chunk, 0, n);
+				dst.write(i, chunk, 0, n);
+			}
+		}
+	}
+
+}
@@ -1,6 +1,17 @@
 package gen;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+import ext.NoiseKernel;
+import ext.SimplexNoise;
 
 public class Generator implements Runnable {
 
@@ -21,13 +32,44 @@ public class Generator implements Runnable {
 	//Generation constants
 	private final int HEIGHT_OCTAVES = 10, MOISTURE_OCTAVES = 12;
 	
+	//Stages reporting progress: height mask, extremity mask, height map and moisture map
+	private static final int GENERATION_STAGES = 4;
+	
 	//Specific world variables
 	private int size, seed;
 	private float modHeight, modMoisture, randomness, modc;
 	
-	//UI variables
-	private String status;
-	private double progress;
+	//Kernel used to evaluate height and moisture noise
+	private NoiseKernel noiseKernel = NoiseKernel.SCALAR;
+	
+	//Largest error octave culling may add to the noise, 0 sums every octave
+	private double octaveEpsilon = 0.0D;
+	
+	//Grid samples per noise unit for interpolated coarse octaves, 0 evaluates every octave at every pixel
+	private int noiseSamplesPerUnit = 0;
+	
+	//Pool noise tiles are evaluated on, null evaluates them on the generation thread
+	private ForkJoinPool noisePool = ForkJoinPool.commonPool();
+	
+	//Source of height and moisture noise
+	private NoiseBackend noiseBackend = NoiseBackend.SIMPLEX;
+	
+	//Where the height and moisture maps of the finished world are stored
+	private StorageMode storageMode = StorageMode.HEAP;
+	
+	//Whether the world data is written out next to the image
+	private boolean saveWorldData = false;
+	
+	//Executor the generation stages run on, null runs them one after the other on the generation thread
+	private Executor stageExecutor = ForkJoinPool.commonPool();
+	
+	//How the random values of the stages are derived from the seed
+	private SeedMode seedMode = SeedMode.COMPATIBLE;
+	
+	//UI variables, updated by the stages from their own threads
+	private volatile String status;
+	private volatile double progress;
+	private int stagesDone;
 
 	// Global Random object
 	private Random random;
@@ -37,6 +79,9 @@ public class Generator implements Runnable {
 	
 	//Raw world output file path
 	private String worldOutputPath;
+	
+	//World data output file path, null unless saved
+	private String worldDataPath;
 
 	//Generator constructor, takes in the world size and world seed
 	public Generator(int size, int seed) {
@@ -73,6 +118,58 @@ public class Generator implements Runnable {
 		
 		System.out.println("Flag set: " + flag.getFlagName());
 	}
+	
+	//Set the kernel used to evaluate height and moisture noise
+	public void setNoiseKernel(NoiseKernel kernel) {
+		this.noiseKernel = kernel;
+	}
+	
+	//Set the largest error octave culling may add to the height and moisture noise
+	public void setOctaveCulling(double epsilon) {
+		this.octaveEpsilon = epsilon;
+	}
+	
+	//Set multi resolution synthesis for height and moisture noise, see SimplexNoise.setMultiResolution
+	public void setMultiResolution(int samplesPerUnit) {
+		this.noiseSamplesPerUnit = samplesPerUnit;
+	}
+	
+	//Set the pool height and moisture noise is evaluated on, null for serial evaluation
+	//The output is the same either way
+	public void setNoisePool(ForkJoinPool pool) {
+		this.noisePool = pool;
+	}
+	
+	//Set the source of height and moisture noise
+	//The kernel, culling, multi resolution and pool options only apply to SIMPLEX
+	public void setNoiseBackend(NoiseBackend backend) {
+		this.noiseBackend = backend;
+	}
+	
+	//Set where the height and moisture maps of the finished world are stored
+	//DIRECT keeps them off the heap until World.release is called, the quantized modes
+	//round them to save memory once the biomes are assigned
+	public void setStorageMode(StorageMode mode) {
+		this.storageMode = mode;
+	}
+	
+	//Set whether the height, moisture and biome data is written out next to the image
+	//The file can be read back with World.load instead of generating again
+	public void setSaveWorldData(boolean save) {
+		this.saveWorldData = save;
+	}
+	
+	//Set the executor the height and moisture stages run on concurrently, null runs them in turn
+	//The world is the same either way
+	public void setStageExecutor(Executor executor) {
+		this.stageExecutor = executor;
+	}
+	
+	//Set how the random values of the stages are derived from the seed
+	//COMPATIBLE (the default) keeps the worlds every seed gave before, SPLIT gives each stage its own generator
+	public void setSeedMode(SeedMode mode) {
+		this.seedMode = mode;
+	}
 
 	//The start method for the generation thread
 	@Override
@@ -94,88 +191,109 @@ public class Generator implements Runnable {
 	 */
 	public void generate() {
 		/*
-		 * Generate height map
+		 * Draw the random values of every stage up front, so they do not depend on
+		 * the order the stages run in
 		 */
 		
-		// Generate height simplex noise seed
-		int heightNoiseSeed = random.nextInt();
-		System.out.println("seeding height with " + heightNoiseSeed);
+		int heightNoiseSeed, moistureNoiseSeed, extremitySeed;
+		float heightNoisePersistence, moistureNoisePersistence;
+		Point polarCenter;
+		if (seedMode == SeedMode.SPLIT) {
+			// Every stage draws from its own generator split off the world seed
+			SplittableRandom stages = new SplittableRandom(seed);
+			SplittableRandom height = stages.split(), extremity = stages.split(), moisture = stages.split();
+			heightNoiseSeed = height.nextInt();
+			heightNoisePersistence = 0.62F + (float) height.nextDouble() * (0.74F - 0.62F);
+			extremitySeed = extremity.nextInt();
+			moistureNoiseSeed = moisture.nextInt();
+			moistureNoisePersistence = 0.53F + (float) moisture.nextDouble() * (0.68F - 0.53F);
+			polarCenter = new Point(randomIntegerWithinRange(moisture, (size/2), 0.5F),
+					randomIntegerWithinRange(moisture, (size/2), 0.5F));
+		} else {
+			// The world Random in the order the stages used to draw from it one after the other
+			heightNoiseSeed = random.nextInt();
+			heightNoisePersistence = 0.62F + random.nextFloat() * (0.74F - 0.62F);
+			moistureNoisePersistence = 0.53F + random.nextFloat() * (0.68F - 0.53F);
+			polarCenter = new Point(randomIntegerWithinRange((size/2), 0.5F),
+					randomIntegerWithinRange((size/2), 0.5F));
+			moistureNoiseSeed = random.nextInt();
+			extremitySeed = seed;
+		}
 		
-		//Derive persistence(s) from seed
-		float heightNoisePersistence = 0.62F + random.nextFloat() * (0.74F - 0.62F);
-		float moistureNoisePersistence = 0.53F + random.nextFloat() * (0.68F - 0.53F);
+		System.out.println("seeding height with " + heightNoiseSeed);
 		System.out.println("using " + HEIGHT_OCTAVES + " octaves and " + heightNoisePersistence + " persistence");
+		System.out.println("seeding moisture noise with " + moistureNoiseSeed);
+		System.out.println("using " + MOISTURE_OCTAVES + " octaves and " + moistureNoisePersistence + " persistence");
 		
 		//Update status and progress
-		this.status = "generating height map...";
+		this.status = "generating height and moisture maps...";
 		this.progress = 5.0D;
+		this.stagesDone = 0;
 		
-		//Generate height simplex noise
-		FloatMap heightNoise = MaskGenerator.getSimplexNoise(size, heightNoiseSeed, HEIGHT_OCTAVES, heightNoisePersistence);
-		heightNoise.adjustRange(0, 1);
-		heightNoise.invert();
+		/*
+		 * Generate height map
+		 * 
+		 * The masks run side by side, the noise needs the blended mask to skip the
+		 * tiles it zeroes out
+		 */
 		
 		//Generate height noise mask (circular using global modc radius variable)
-		FloatMap heightMask = MaskGenerator.getCircularMask(size, modc);
-		heightMask.adjustRange(0, 1);
-		
-		//Update status and progress
-		this.status = "masking height noise...";
-		this.progress = 25.0D;
+		//It is the same for every seed of a size, so it comes read-only from the mask cache
+		CompletableFuture<FloatMap> heightMask = stage("height mask",
+				() -> MaskGenerator.getCachedCircularMask(size, modc));
 		
 		// Generate secondary extremity mask
-		FloatMap extremityHeightMask = MaskGenerator.getExtremityMask(size, seed);
+		CompletableFuture<FloatMap> extremityHeightMask = stage("extremity mask",
+				() -> MaskGenerator.getExtremityMask(size, extremitySeed));
 		
-		// Blend primary and secondary height masks
-		FloatMap heightMap = FloatMap.weightedBlend(heightMask, extremityHeightMask, 0.75F, 0.25F);
+		// Blend primary and secondary height masks in one pass, into the extremity mask
+		// The circular mask already spans 0.0 to 1.0, adjusting it to that range changes nothing
+		CompletableFuture<FloatMap> heightSupport = extremityHeightMask.thenCombine(heightMask,
+				(extremity, mask) -> extremity.lazy().weightedBlend(mask, 0.25F, 0.75F).materialize());
 		
 		//BETA - blend with additive mask
 		//heightMap.blend(MaskGenerator.getAdditiveMask(size, seed));
 		
-		// Blend mask and noise to create height map
-		heightMap.blend(heightNoise);
-		
-		// Add height modifier
-		heightMap.addModifier(modHeight, 0.0F, 1.0F);
-		heightMap.adjustRange(0, 1);
-		heightMap.pruneValues();
+		//Generate height simplex noise, skipping tiles the mask zeroes out anyway
+		//Then blend mask and inverted noise, add height modifier and rescale in one pass
+		CompletableFuture<FloatMap> heightStage = heightSupport.thenApplyAsync(heightMap -> {
+			FloatMap heightNoise = createNoise(heightNoiseSeed, HEIGHT_OCTAVES, heightNoisePersistence)
+					.getNoiseMap(size, heightMap);
+			heightMap.lazy()
+					.blend(heightNoise.lazy().adjustRange(0, 1).invert())
+					.addModifier(modHeight, 0.0F, 1.0F)
+					.adjustRange(0, 1)
+					.pruneValues()
+					.materialize();
+			stageDone("height map");
+			return heightMap;
+		}, executor());
 		
 		/*
-		 * Generate moisture map
+		 * Generate moisture map, independent of the height map
 		 */
 		
-		//Find polar center coordnates
-		Point polarCenter = new Point(randomIntegerWithinRange((size/2), 0.5F),
-				randomIntegerWithinRange((size/2), 0.5F));
-		
-		//Update status and progress
-		this.status = "generating moisture noise...";
-		this.progress = 50.0D;
-		
-		// Generate moisture simplex noise seed
-		int moistureNoiseSeed = random.nextInt();
-		System.out.println("seeding moisture noise with " + moistureNoiseSeed);
-		System.out.println("using " + MOISTURE_OCTAVES + " octaves and " + moistureNoisePersistence + " persistence");
-		
-		//Generate moisture simplex noise
-		FloatMap moistureNoise = MaskGenerator.getSimplexNoise(size, moistureNoiseSeed, MOISTURE_OCTAVES, moistureNoisePersistence);
-		moistureNoise.adjustRange(0, 1);
-		moistureNoise.invert();
-		
-		//Update status and progress
-		this.status = "masking moisture map...";
-		this.progress = 75.0D;
-		
-		// Generate moisture circular mask
-		FloatMap moistureMask = MaskGenerator.getDefinedCircularMask(size, polarCenter, (int)(size * 0.8F), modc, 1.0F);
+		// Moisture circular mask, evaluated where the noise and the blend read it instead of stored
+		MaskFunction moistureMask = MaskGenerator.getDefinedCircularMaskFunction(size, polarCenter, (int)(size * 0.8F),
+				modc, 1.0F);
 		
-		// Blend moisture noise and mask
-		FloatMap moistureMap = FloatMap.blend(moistureNoise, moistureMask);
+		//Generate moisture simplex noise, skipping tiles the mask zeroes out anyway
+		//Then blend inverted moisture noise and mask, add moisture modifier and rescale in one pass
+		CompletableFuture<FloatMap> moistureStage = stage("moisture map", () -> {
+			FloatMap moistureNoise = createNoise(moistureNoiseSeed, MOISTURE_OCTAVES, moistureNoisePersistence)
+					.getNoiseMap(size, moistureMask);
+			return moistureNoise.lazy()
+					.adjustRange(0, 1)
+					.invert()
+					.blend(moistureMask)
+					.addModifier(modMoisture, 0.0F, 1.0F)
+					.adjustRange(0, 1)
+					.pruneValues()
+					.materialize();
+		});
 		
-		//Add moisture modifier
-		moistureMap.addModifier(modMoisture, 0.0F, 1.0F);
-		moistureMap.adjustRange(0, 1);
-		moistureMap.pruneValues();
+		FloatMap heightMap = join(heightStage);
+		FloatMap moistureMap = join(moistureStage);
 		
 		/*
 		 * Build world from height and moisture maps
@@ -228,10 +346,27 @@ public class Generator implements Runnable {
 			}
 		}
 		
+		// Move the finished maps to the selected storage, biomes were assigned from the exact values
+		if (storageMode != StorageMode.HEAP) {
+			world.setHeightMap(heightMap.copy(storageMode));
+			world.setMoistureMap(moistureMap.copy(storageMode));
+		}
+		
 		//Write out image of the generated world to the current running directory
 		this.worldOutputPath = "mapgen-" + seed + ".png";
 		world.writeImage(this.worldOutputPath);
 		
+		//Write out the world data as well if requested
+		if (saveWorldData) {
+			this.worldDataPath = "mapgen-" + seed + ".world";
+			try {
+				world.save(new File(this.worldDataPath));
+			} catch (IOException e) {
+				e.printStackTrace();
+				this.worldDataPath = null;
+			}
+		}
+		
 		//Update final status and progress
 		this.status = "done";
 		this.progress = 100.0D;
@@ -246,6 +381,57 @@ public class Generator implements Runnable {
 	 * Utility functions
 	 */
 
+	//Returns the NoiseSource for the selected backend
+	//SimplexNoise is set up with the noise kernel, multi resolution, octave culling and pool options
+	private NoiseSource createNoise(int noiseSeed, int octaves, double persistence) {
+		if (noiseBackend == NoiseBackend.SPECTRAL) {
+			return new SpectralNoiseSource(octaves, persistence, noiseSeed);
+		}
+		
+		SimplexNoise noise = new SimplexNoise(octaves, persistence, noiseSeed, noiseKernel);
+		noise.setMultiResolution(noiseSamplesPerUnit);
+		if (octaveEpsilon > 0.0D) {
+			double bound = noise.cullOctaves(octaveEpsilon);
+			System.out.println("culled to " + noise.getActiveOctaves() + " of " + octaves + " octaves, error bound=" + bound);
+		}
+		return new SimplexNoiseSource(noise, noisePool);
+	}
+
+	//Runs a generation stage on the stage executor
+	private <T> CompletableFuture<T> stage(String name, Supplier<T> stage) {
+		return CompletableFuture.supplyAsync(() -> {
+			T result = stage.get();
+			stageDone(name);
+			return result;
+		}, executor());
+	}
+	
+	private Executor executor() {
+		return stageExecutor != null ? stageExecutor : Runnable::run;
+	}
+	
+	//Moves the progress bar on as stages finish, in whichever order they do
+	private synchronized void stageDone(String name) {
+		this.stagesDone++;
+		this.status = name + " done...";
+		this.progress = 5.0D + 80.0D * stagesDone / GENERATION_STAGES;
+	}
+	
+	//Waits for a stage, rethrowing what it failed with
+	private static <T> T join(CompletableFuture<T> stage) {
+		try {
+			return stage.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
 	//Returns a random modifier from (+/- randomness of the median) multiplied by the adjustment variable
 	private float randomModifier(float median, float adjustment) {
 		return (median - (randomness * adjustment))
@@ -258,11 +444,22 @@ public class Generator implements Runnable {
 		return random.nextInt(rmax + 1 - rmin) + rmin;
 	}
 	
+	//Same as above drawing from a stage's own generator
+	private static int randomIntegerWithinRange(SplittableRandom random, int median, float randomness) {
+		int rmin = (int) ((float) median * (1.0F - randomness)), rmax = (int) ((float) median * (1.0F + randomness));
+		return random.nextInt(rmax + 1 - rmin) + rmin;
+	}
+	
 	//Returns the world output path
 	public String getWorldOutputPath() {
 		return this.worldOutputPath;
 	}
 	
+	//Returns the world data output path, null unless the world data was saved
+	public String getWorldDataPath() {
+		return this.worldDataPath;
+	}
+	
 	/*
 	 * UI functions
 	 */
@@ -0,0 +1,125 @@
+package gen;
+
+final class HalfFloatStorage implements FloatStorage {
+
+	/*
+	 * FloatStorage keeping every value as an IEEE 754 half precision float in a
+	 * short array on the heap
+	 * 
+	 * Values are rounded to the nearest half (ties to even), 11 significant bits
+	 * so the relative error is at most 2^-11 (2^-12 absolute on 0.5 to 1.0).
+	 * Values beyond 65504 become infinite
+	 */
+
+	// Float value of every half bit pattern
+	private static final float[] DECODE = new float[1 << 16];
+
+	static {
+		for (int h = 0; h < DECODE.length; h++) {
+			DECODE[h] = toFloat((short) h);
+		}
+	}
+
+	private short[] data;
+
+	HalfFloatStorage(int length) {
+		this.data = new short[length];
+	}
+
+	// Rounds a float to the nearest half, ties to even
+	static short toHalf(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int abs = bits & 0x7FFFFFFF;
+
+		// Infinity and NaN, NaN keeps a quiet bit
+		if (abs >= 0x7F800000) {
+			return (short) (sign | 0x7C00 | (abs > 0x7F800000 ? 0x200 : 0));
+		}
+		// 65520 and beyond round to infinity
+		if (abs >= 0x477FF000) {
+			return (short) (sign | 0x7C00);
+		}
+		// Below 2^-14 the half is subnormal, below 2^-25 it rounds to zero
+		if (abs < 0x38800000) {
+			if (abs < 0x33000000) {
+				return (short) sign;
+			}
+			int mantissa = (abs & 0x7FFFFF) | 0x800000;
+			int shift = 126 - (abs >>> 23);
+			int half = mantissa >>> shift;
+			int rest = mantissa & ((1 << shift) - 1), halfway = 1 << (shift - 1);
+			if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+		// Normal, rebias the exponent from 127 to 15 and drop 13 mantissa bits
+		int half = (abs - 0x38000000) >>> 13;
+		int rest = abs & 0x1FFF;
+		if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+			half++;
+		}
+		return (short) (sign | half);
+	}
+
+	// Returns the exact float value of a half
+	static float toFloat(short half) {
+		int bits = half & 0xFFFF;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1F, mantissa = bits & 0x3FF;
+		if (exponent == 0x1F) {
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		}
+		if (exponent == 0) {
+			float value = mantissa * 0x1p-24F;
+			return sign != 0 ? -value : value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+
+	@Override
+	public int length() {
+		return data.length;
+	}
+
+	@Override
+	public float get(int index) {
+		return DECODE[data[index] & 0xFFFF];
+	}
+
+	@Override
+	public void set(int index, float value) {
+		data[index] = toHalf(value);
+	}
+
+	@Override
+	public void read(int index, float[] dst, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			dst[offset + i] = DECODE[data[index + i] & 0xFFFF];
+		}
+	}
+
+	@Override
+	public void write(int index, float[] src, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			data[index + i] = toHalf(src[offset + i]);
+		}
+	}
+
+	@Override
+	public float[] array() {
+		return null;
+	}
+
+	@Override
+	public StorageMode getMode() {
+		return StorageMode.HALF;
+	}
+
+	@Override
+	public void release() {
+		this.data = null;
+	}
+
+}
@@ -0,0 +1,56 @@
+package gen;
+
+final class HeapFloatStorage implements FloatStorage {
+
+	/*
+	 * FloatStorage over a float array on the heap
+	 */
+
+	private float[] data;
+
+	HeapFloatStorage(float[] data) {
+		this.data = data;
+	}
+
+	@Override
+	public int length() {
+		return data.length;
+	}
+
+	@Override
+	public float get(int index) {
+		return data[index];
+	}
+
+	@Override
+	public void set(int index, float value) {
+		data[index] = value;
+	}
+
+	@Override
+	public void read(int index, float[] dst, int offset, int length) {
+		System.arraycopy(data, index, dst, offset, length);
+	}
+
+	@Override
+	public void write(int index, float[] src, int offset, int length) {
+		System.arraycopy(src, offset, data, index, length);
+	}
+
+	@Override
+	public float[] array() {
+		return data;
+	}
+
+	@Override
+	public StorageMode getMode() {
+		return StorageMode.HEAP;
+	}
+
+	// Drops the array, the collector frees it
+	@Override
+	public void release() {
+		this.data = null;
+	}
+
+}
@@ -0,0 +1,93 @@
+package gen;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+final class ImageRaster {
+
+	/*
+	 * Direct access to the pixels of the images FloatMap and World export
+	 *
+	 * A TYPE_INT_RGB image keeps its pixels in one int[] row by row, 0xRRGGBB per
+	 * pixel. Writing that array directly skips the colour model conversion
+	 * setRGB does for every pixel, and walking it row by row writes memory in
+	 * order. Colours come from palettes of precomputed pixel values
+	 *
+	 * Rows are split in bands over FloatMap.getDefaultPool, images smaller than
+	 * FloatMap.getMinimumParallelLength pixels stay on the calling thread. Every
+	 * pixel is written by exactly one band, so the image is the same either way
+	 */
+
+	// Rows per parallel task
+	private static final int BAND = 64;
+
+	// Writes the pixels of rows [from, to), pixel (x, y) is pixels[y * size + x]
+	interface RowWriter {
+		void write(int from, int to, int[] pixels);
+	}
+
+	// greyscale ramp, GREY[v] is the pixel of new Color(v, v, v)
+	static final int[] GREY = new int[256];
+
+	static {
+		for (int v = 0; v < GREY.length; v++) {
+			GREY[v] = pixel(new Color(v, v, v));
+		}
+	}
+
+	private ImageRaster() {
+	}
+
+	// The pixel value setRGB stores in a TYPE_INT_RGB image for color
+	static int pixel(Color color) {
+		return color.getRGB() & 0xFFFFFF;
+	}
+
+	// Creates a size by size image and fills it with writer
+	static BufferedImage write(int size, RowWriter writer) {
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		ForkJoinPool pool = FloatMap.getDefaultPool();
+		int bands = (size + BAND - 1) / BAND;
+		if (pool == null || bands <= 1 || (long) size * size < FloatMap.getMinimumParallelLength()) {
+			writer.write(0, size, pixels);
+		} else {
+			pool.invoke(new BandTask(size, 0, bands, pixels, writer));
+		}
+		return image;
+	}
+
+	// Splits bands [from, to) of rows down to one band per task
+	private static class BandTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int size, from, to;
+		private final int[] pixels;
+		private final RowWriter writer;
+
+		BandTask(int size, int from, int to, int[] pixels, RowWriter writer) {
+			this.size = size;
+			this.from = from;
+			this.to = to;
+			this.pixels = pixels;
+			this.writer = writer;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new BandTask(size, from, mid, pixels, writer), new BandTask(size, mid, to, pixels, writer));
+			} else {
+				writer.write(from * BAND, Math.min(size, to * BAND), pixels);
+			}
+		}
+
+	}
+
+}
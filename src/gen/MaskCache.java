@@ -0,0 +1,131 @@
+package gen;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class MaskCache {
+
+	/*
+	 * Least recently used cache of masks that only depend on their parameters,
+	 * behind MaskGenerator.getCachedCircularMask and getCachedDefinedCircularMask
+	 *
+	 * Entries are weighed by the memory of their values. When a new mask pushes
+	 * the total over the capacity the least recently used masks are dropped, a
+	 * mask larger than the whole capacity is not kept. Callers get read-only
+	 * views, so a cached mask can not be changed by anyone using it
+	 *
+	 * Safe to use from several threads. Two threads missing the same mask at
+	 * once both build it and the first one stored is kept
+	 */
+
+	// Parameters a mask is built from, floats compared by their bits
+	static final class Key {
+
+		private final String kind;
+		private final int[] parameters;
+
+		Key(String kind, int... parameters) {
+			this.kind = kind;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return kind.equals(other.kind) && Arrays.equals(parameters, other.parameters);
+		}
+
+		@Override
+		public int hashCode() {
+			return kind.hashCode() * 31 + Arrays.hashCode(parameters);
+		}
+
+	}
+
+	// Access ordered, the first entry is the least recently used
+	private final LinkedHashMap<Key, FloatMap> masks = new LinkedHashMap<Key, FloatMap>(16, 0.75F, true);
+
+	// Capacity and current weight in bytes
+	private long capacity, weight;
+	private long hits, misses;
+
+	MaskCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	// Returns a read-only view of the mask stored for key, or null after counting a miss
+	synchronized FloatMap get(Key key) {
+		FloatMap mask = masks.get(key);
+		if (mask == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return mask.readOnlyView();
+	}
+
+	// Stores mask for key, it must not be changed afterwards, returns a read-only view of the mask kept
+	synchronized FloatMap put(Key key, FloatMap mask) {
+		FloatMap kept = masks.get(key);
+		if (kept != null) {
+			return kept.readOnlyView();
+		}
+
+		long bytes = weight(mask);
+		if (bytes <= capacity) {
+			masks.put(key, mask);
+			weight += bytes;
+			evict();
+		}
+		return mask.readOnlyView();
+	}
+
+	synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		evict();
+	}
+
+	synchronized long getCapacity() {
+		return capacity;
+	}
+
+	// Bytes held by the cached masks
+	synchronized long getWeight() {
+		return weight;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	// Drops every mask and resets the counters
+	synchronized void clear() {
+		masks.clear();
+		weight = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	// Drops least recently used masks until the weight is within the capacity
+	private void evict() {
+		Iterator<Map.Entry<Key, FloatMap>> entries = masks.entrySet().iterator();
+		while (weight > capacity && entries.hasNext()) {
+			weight -= weight(entries.next().getValue());
+			entries.remove();
+		}
+	}
+
+	private static long weight(FloatMap mask) {
+		return (long) mask.getSize() * mask.getSize() * Float.BYTES;
+	}
+
+}
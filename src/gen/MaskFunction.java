@@ -0,0 +1,61 @@
+package gen;
+
+public interface MaskFunction {
+
+	/*
+	 * A size by size mask read row by row, values in the range 0.0 to 1.0
+	 *
+	 * Masks like the circular ones of MaskGenerator are closed form functions of
+	 * (x, y), they are evaluated a row at a time where they are used instead of
+	 * being stored in a full map first. FloatMapExpression takes them as blend
+	 * operands and NoiseSource as support, materialize stores one when a map is
+	 * needed after all
+	 *
+	 * A FloatMap is a MaskFunction over its stored values. Implementations must
+	 * allow rows to be read from several threads at once
+	 */
+
+	int getSize();
+
+	// Copies length values of row y starting at column x into dst starting at offset
+	void getRow(int y, int x, float[] dst, int offset, int length);
+
+	// Returns the value at (x, y)
+	default float get(int x, int y) {
+		float[] val = new float[1];
+		getRow(y, x, val, 0, 1);
+		return val[0];
+	}
+
+	// Returns the mask with every value v replaced by 1.0 - v, as FloatMap.invert would
+	default MaskFunction inverted() {
+		MaskFunction mask = this;
+		return new MaskFunction() {
+
+			@Override
+			public int getSize() {
+				return mask.getSize();
+			}
+
+			@Override
+			public void getRow(int y, int x, float[] dst, int offset, int length) {
+				mask.getRow(y, x, dst, offset, length);
+				for (int i = offset; i < offset + length; i++) {
+					dst[i] = 1.0F - dst[i];
+				}
+			}
+
+		};
+	}
+
+	// Evaluates every value into a new FloatMap with the range 0.0 to 1.0
+	default FloatMap materialize() {
+		int size = getSize();
+		float[] values = new float[size * size];
+		for (int y = 0; y < size; y++) {
+			getRow(y, 0, values, y * size, size);
+		}
+		return new FloatMap(0, 1, size, values);
+	}
+
+}
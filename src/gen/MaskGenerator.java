@@ -1,7 +1,9 @@
 package gen;
 
-import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ext.NoiseKernel;
 import ext.SimplexNoise;
 
 public class MaskGenerator {
@@ -10,55 +12,123 @@ public class MaskGenerator {
 	 * Generates masks for noise to be blended with
 	 * 
 	 * ALL FUNCTIONS ARE DECRIPITATED EXCEPT THE CIRCULAR MASKS
+	 * 
+	 * The circular masks only depend on their parameters, the cached variants
+	 * keep them in a least recently used cache bounded in bytes (an eighth of the
+	 * maximum heap by default) and return read-only views
+	 * 
+	 * The circular and scattered masks are also available as a MaskFunction,
+	 * which blends evaluate row by row without storing the mask
 	 */
 
+	private static final MaskCache cache = new MaskCache(Runtime.getRuntime().maxMemory() / 8);
+
 	// Returns a circular mask with a weaker or a stronger dropoff according to the
 	// factors
 	// modc = multiplier for distance from center
 	public static FloatMap getCircularMask(int size, float modc) {
-		float[][] mask = new float[size][size];
+		float[] mask = new float[size * size];
 		int center = (int) (size / 2);
 		float max_width = size * 0.5f - 10.0f;
+		double reach = CircularMaskFunction.reach(max_width, 1.0F), cutoff = reach * reach;
+
+		// Symmetric around the center, only the quadrant of offsets 0 to center is
+		// computed and mirrored to every row and column at that offset
+		float[] offsets = CircularMaskFunction.offsets(0, center + 1, modc);
+		float[] quadrant = new float[center + 1];
+		for (int dy = 0; dy <= center; dy++) {
+			float rowOffset = offsets[dy];
+			double rowSquare = (double) rowOffset * rowOffset;
+			for (int dx = 0; dx <= center; dx++) {
+				quadrant[dx] = CircularMaskFunction.value(rowOffset, rowSquare, offsets[dx], max_width, 1.0F, cutoff);
+			}
 
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				float distance = (float) (Math.hypot(Math.abs((center - y) * modc), Math.abs((center - x) * modc)));
-				float delta = distance / max_width;
-				float gradient = delta * delta;
-				float val = 1.0F - gradient;
-				if (val < 0.0F) {
-					val = 0.0F;
-				}
-				mask[x][y] = val;
+			int y = center + dy;
+			if (y >= size) {
+				continue;
+			}
+			int row = y * size;
+			for (int x = 0; x < center; x++) {
+				mask[row + x] = quadrant[center - x];
+			}
+			for (int x = center; x < size; x++) {
+				mask[row + x] = quadrant[x - center];
+			}
+			if (dy > 0 && center - dy >= 0) {
+				System.arraycopy(mask, row, mask, (center - dy) * size, size);
+			}
+		}
+		// With an even size row 0 is center away from it but has no mirror below
+		if (size > 0 && center + center >= size) {
+			float rowOffset = offsets[center];
+			double rowSquare = (double) rowOffset * rowOffset;
+			for (int x = 0; x < size; x++) {
+				mask[x] = CircularMaskFunction.value(rowOffset, rowSquare, offsets[Math.abs(center - x)], max_width, 1.0F,
+						cutoff);
 			}
 		}
 
-		FloatMap fmap = new FloatMap(0, 1, size);
-		fmap.setMap(mask);
-		return fmap;
+		return new FloatMap(0, 1, size, mask);
 	}
 
 	public static FloatMap getDefinedCircularMask(int size, Point origin, int radius, float modc, float modg) {
-		float[][] mask = new float[size][size];
-		float max_width = radius - 10.0f;
-
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				float distance = (float) (Math.hypot(Math.abs((origin.getY() - y) * modc),
-						Math.abs((origin.getX() - x) * modc)));
-				float delta = distance / max_width;
-				float gradient = delta * delta;
-				float val = modg - gradient;
-				if (val < 0.0F) {
-					val = 0.0F;
-				}
-				mask[x][y] = val;
-			}
-		}
+		return getDefinedCircularMaskFunction(size, origin, radius, modc, modg).materialize();
+	}
+
+	// getCircularMask as a MaskFunction, evaluated where it is used instead of stored
+	public static MaskFunction getCircularMaskFunction(int size, float modc) {
+		int center = size / 2;
+		return new CircularMaskFunction(size, center, center, size * 0.5f - 10.0f, modc, 1.0F);
+	}
+
+	// getDefinedCircularMask as a MaskFunction, evaluated where it is used instead of stored
+	public static MaskFunction getDefinedCircularMaskFunction(int size, Point origin, int radius, float modc,
+			float modg) {
+		return new CircularMaskFunction(size, origin.getX(), origin.getY(), radius - 10.0f, modc, modg);
+	}
+
+	// Same as getCircularMask, the mask is shared through the mask cache and read-only
+	public static FloatMap getCachedCircularMask(int size, float modc) {
+		MaskCache.Key key = new MaskCache.Key("circular", size, Float.floatToIntBits(modc));
+		FloatMap mask = cache.get(key);
+		return mask != null ? mask : cache.put(key, getCircularMask(size, modc));
+	}
+
+	// Same as getDefinedCircularMask, the mask is shared through the mask cache and read-only
+	public static FloatMap getCachedDefinedCircularMask(int size, Point origin, int radius, float modc, float modg) {
+		MaskCache.Key key = new MaskCache.Key("defined", size, origin.getX(), origin.getY(), radius,
+				Float.floatToIntBits(modc), Float.floatToIntBits(modg));
+		FloatMap mask = cache.get(key);
+		return mask != null ? mask : cache.put(key, getDefinedCircularMask(size, origin, radius, modc, modg));
+	}
+
+	// Sets the bytes the mask cache may hold, least recently used masks are dropped to fit, 0 turns it off
+	public static void setMaskCacheCapacity(long bytes) {
+		cache.setCapacity(bytes);
+	}
 
-		FloatMap fmap = new FloatMap(0, 1, size);
-		fmap.setMap(mask);
-		return fmap;
+	public static long getMaskCacheCapacity() {
+		return cache.getCapacity();
+	}
+
+	// Returns the bytes currently held by the mask cache
+	public static long getMaskCacheSize() {
+		return cache.getWeight();
+	}
+
+	// Returns how many cached mask requests were served from the cache
+	public static long getMaskCacheHits() {
+		return cache.getHits();
+	}
+
+	// Returns how many cached mask requests had to build their mask
+	public static long getMaskCacheMisses() {
+		return cache.getMisses();
+	}
+
+	// Drops every cached mask and resets the counters
+	public static void clearMaskCache() {
+		cache.clear();
 	}
 
 	// Wraps the fractal mask method for cleaner access
@@ -85,12 +155,11 @@ public class MaskGenerator {
 	// Returns an oval like fractalular mask
 	private static FloatMap getFractalMask(int size, int seed, Point p1, Point p2, int averageWidth, int averageSpread,
 			int mdiff, float modc, float modr, float modg) {
-		float[][] mask = new float[size][size];
 		float lineDistance = p1.distance(p2);
 		int cmaskNum = (int) ((int) lineDistance / averageSpread) + 1;
 		float distSpread = (float) (lineDistance / (float) cmaskNum);
 		Random rnd = new Random(seed);
-		ArrayList<FloatMap> masks = new ArrayList<FloatMap>();
+		CircularMaskFunction[] circles = new CircularMaskFunction[cmaskNum];
 
 		for (int i = 0; i < cmaskNum; i++) {
 			int lx = (int) ((float) p1.getX()
@@ -106,24 +175,21 @@ public class MaskGenerator {
 			Point c = new Point(lx, ly);
 			// System.out.println(c + ", rad=" + rad + ", modc=" + diffmodc + ", distsp=" +
 			// (int)(distSpread * i) + ", modg=" + diffmodg + ", i=" + i);
-			FloatMap cmk = MaskGenerator.getDefinedCircularMask(size, c, rad, diffmodc, diffmodg);
-			cmk.invert();
-			masks.add(cmk);
-		}
-
-		FloatMap fmap = masks.get(0);
-		for (int j = 1; j < cmaskNum; j++) {
-			fmap.blend(masks.get(j));
+			circles[i] = new CircularMaskFunction(size, c.getX(), c.getY(), rad - 10.0f, diffmodc, diffmodg);
 		}
 
-		fmap.invert();
-		return fmap;
+		return new ScatteredMaskFunction(size, circles).materialize();
 	}
 
 	public static FloatMap getScatteredMask(int size, int seed, int averageWidth, int islands, float randomness) {
-		float[][] mask = new float[size][size];
-		FloatMap[] maps = new FloatMap[islands];
+		return getScatteredMaskFunction(size, seed, averageWidth, islands, randomness).materialize();
+	}
+
+	// getScatteredMask as a MaskFunction, evaluated where it is used instead of stored
+	public static MaskFunction getScatteredMaskFunction(int size, int seed, int averageWidth, int islands,
+			float randomness) {
 		Random rnd = new Random(seed);
+		CircularMaskFunction[] circles = new CircularMaskFunction[islands];
 
 		int rmin = (int) ((float) averageWidth * (1.0F - randomness)),
 				rmax = (int) ((float) averageWidth * (1.0F + randomness));
@@ -135,43 +201,39 @@ public class MaskGenerator {
 			float diffmodc = (1.0F - randomness) + rnd.nextFloat() * (1.0F - (1.0F - randomness));
 			float diffmodg = (1.0F - randomness) + rnd.nextFloat() * (1.0F - (1.0F - randomness));
 
-			FloatMap island = getDefinedCircularMask(size, origin, radius, diffmodc, diffmodg);
-			island.invert();
-			maps[i] = island;
+			circles[i] = new CircularMaskFunction(size, origin.getX(), origin.getY(), radius - 10.0f, diffmodc,
+					diffmodg);
 		}
 
-		FloatMap fmap = maps[0];
-		for (int j = 1; j < islands; j++) {
-			fmap.blend(maps[j]);
-		}
-
-		fmap.invert();
-		return fmap;
+		return new ScatteredMaskFunction(size, circles);
 	}
 
 	// Returns a FloatMap (size by size) of SimplexNoise from a seed and specified
 	// octaves
 	// Range is -1.0 to 1.0
 	public static FloatMap getSimplexNoise(int size, int seed, int octaves, double persistence) {
-		SimplexNoise noise = new SimplexNoise(octaves, persistence, seed);
-
-		float[][] map = new float[size][size];
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
-				float val = (float) noise.getNoise2D(x, y);
-				if (val > 1.0F) {
-					val = 1.0F;
-				}
-				if (val < -1.0F) {
-					val = -1.0F;
-				}
-				map[x][y] = val;
-			}
-		}
+		return getSimplexNoise(size, seed, octaves, persistence, NoiseKernel.SCALAR);
+	}
+
+	// Same as above, evaluating the noise with the given kernel
+	public static FloatMap getSimplexNoise(int size, int seed, int octaves, double persistence, NoiseKernel kernel) {
+		return getSimplexNoise(size, new SimplexNoise(octaves, persistence, seed, kernel));
+	}
+
+	// Same as above from an already configured SimplexNoise
+	public static FloatMap getSimplexNoise(int size, SimplexNoise noise) {
+		return getSimplexNoise(size, noise, null);
+	}
+
+	// Same as above, splitting the map into tiles that are evaluated on a pool
+	// Runs serially if pool is null, the output is identical either way
+	public static FloatMap getSimplexNoise(int size, SimplexNoise noise, ForkJoinPool pool) {
+		return getSimplexNoise(size, noise, pool, null);
+	}
 
-		FloatMap fmap = new FloatMap(-1, 1, size);
-		fmap.setMap(map);
-		return fmap;
+	// Same as above for noise that will be multiplied into support, see NoiseSource
+	public static FloatMap getSimplexNoise(int size, SimplexNoise noise, ForkJoinPool pool, MaskFunction support) {
+		return new SimplexNoiseSource(noise, pool).getNoiseMap(size, support);
 	}
 	
 	//Returns a simple scattered mask for extremities
@@ -185,10 +247,12 @@ public class MaskGenerator {
 		System.out.println("extremity average radius=" + (size / 64));
 		
 		FloatMap positiveMask = MaskGenerator.getScatteredMask(size, seed, (size / 48), countPositive, randomness);
-		FloatMap negativeMask = MaskGenerator.getScatteredMask(size, seed, (size / 64), countNegative, randomness);
-		negativeMask.invert();
+		// The inverted negative mask is only evaluated chunk by chunk within the blend
+		MaskFunction negativeMask = MaskGenerator.getScatteredMaskFunction(size, seed, (size / 64), countNegative,
+				randomness).inverted();
 		
-		return FloatMap.blend(positiveMask, negativeMask);
+		positiveMask.lazy().blend(negativeMask).materialize();
+		return positiveMask;
 	}
 	
 	//Returns a modified height map with extra land
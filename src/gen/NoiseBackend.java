@@ -0,0 +1,14 @@
+package gen;
+
+public enum NoiseBackend {
+
+	/*
+	 * Noise sources the Generator can build height and moisture noise with
+	 * 
+	 * SIMPLEX sums octaves of simplex noise (SimplexNoiseSource)
+	 * SPECTRAL shapes a random spectrum and inverse transforms it (SpectralNoiseSource)
+	 */
+
+	SIMPLEX, SPECTRAL;
+
+}
@@ -0,0 +1,17 @@
+package gen;
+
+public interface NoiseSource {
+
+	/*
+	 * A source of 2D fractal noise for the height and moisture maps
+	 * 
+	 * SimplexNoiseSource is the default, SpectralNoiseSource builds the same kind
+	 * of noise in the frequency domain. Both are seeded deterministically
+	 */
+
+	// Returns a size by size map of noise in the range -1.0 to 1.0
+	// The noise will be multiplied into support, so where support is 0 a source may
+	// leave the noise at 0 instead of evaluating it. support may be null
+	FloatMap getNoiseMap(int size, MaskFunction support);
+
+}
@@ -0,0 +1,61 @@
+package gen;
+
+final class ReadOnlyFloatStorage implements FloatStorage {
+
+	/*
+	 * Read-only view of another FloatStorage, behind maps that are shared (see
+	 * MaskGenerator's mask cache). Reads go to the viewed store, every write
+	 * throws UnsupportedOperationException
+	 *
+	 * The array is not handed out, so FloatMap.getData fails and lazy operations
+	 * read the values through chunk buffers. A view used as a blend operand works
+	 * as usual, materializing steps on the view itself throws
+	 */
+
+	private final FloatStorage storage;
+
+	ReadOnlyFloatStorage(FloatStorage storage) {
+		this.storage = storage;
+	}
+
+	@Override
+	public int length() {
+		return storage.length();
+	}
+
+	@Override
+	public float get(int index) {
+		return storage.get(index);
+	}
+
+	@Override
+	public void set(int index, float value) {
+		throw new UnsupportedOperationException("map is read-only");
+	}
+
+	@Override
+	public void read(int index, float[] dst, int offset, int length) {
+		storage.read(index, dst, offset, length);
+	}
+
+	@Override
+	public void write(int index, float[] src, int offset, int length) {
+		throw new UnsupportedOperationException("map is read-only");
+	}
+
+	@Override
+	public float[] array() {
+		return null;
+	}
+
+	@Override
+	public StorageMode getMode() {
+		return storage.getMode();
+	}
+
+	// The viewed store belongs to someone else, nothing to free
+	@Override
+	public void release() {
+	}
+
+}
@@ -0,0 +1,42 @@
+package gen;
+
+final class ScatteredMaskFunction implements MaskFunction {
+
+	/*
+	 * Union of circular masks as a MaskFunction, behind the scattered and fractal
+	 * masks of MaskGenerator
+	 *
+	 * The value is 1.0 minus the product of every inverted circle (1.0 - value),
+	 * the circles multiplied in order. A row starts at 1.0 and each circle reaching
+	 * it stamps only the columns within its reach, which gives the same bits as
+	 * inverting full maps of every circle, blending them together and inverting
+	 * the result
+	 */
+
+	private final int size;
+	private final CircularMaskFunction[] circles;
+
+	ScatteredMaskFunction(int size, CircularMaskFunction[] circles) {
+		this.size = size;
+		this.circles = circles;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public void getRow(int y, int x, float[] dst, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			dst[i] = 1.0F;
+		}
+		for (CircularMaskFunction circle : circles) {
+			circle.stampRow(y, dst, offset, x, x + length);
+		}
+		for (int i = offset; i < offset + length; i++) {
+			dst[i] = 1.0F - dst[i];
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package gen;
+
+public enum SeedMode {
+
+	/*
+	 * How the Generator derives the random values of its stages from the world seed
+	 *
+	 * COMPATIBLE draws them from the world Random in the order generation always
+	 * has, so every seed gives the same world as before the stages ran
+	 * concurrently (the default)
+	 * SPLIT gives the height, extremity and moisture stages a SplittableRandom
+	 * each, split off one seeded by the world seed. A stage's values no longer
+	 * depend on what the other stages draw
+	 */
+
+	COMPATIBLE, SPLIT;
+
+}
@@ -0,0 +1,125 @@
+package gen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ext.SimplexNoise;
+
+public class SimplexNoiseSource implements NoiseSource {
+
+	/*
+	 * NoiseSource backed by ext.SimplexNoise
+	 * 
+	 * The map is evaluated in tiles, serially or on a ForkJoinPool, with identical
+	 * output either way. Tiles where the support is all 0 are skipped
+	 */
+
+	// Width and height of the tiles noise is evaluated in, 64 * 64 floats fit in L1/L2
+	private static final int NOISE_TILE = 64;
+
+	private final SimplexNoise noise;
+	private final ForkJoinPool pool;
+
+	// SimplexNoiseSource constructor, pool may be null to evaluate on the calling thread
+	public SimplexNoiseSource(SimplexNoise noise, ForkJoinPool pool) {
+		this.noise = noise;
+		this.pool = pool;
+	}
+
+	// Returns the wrapped SimplexNoise
+	public SimplexNoise getNoise() {
+		return noise;
+	}
+
+	@Override
+	public FloatMap getNoiseMap(int size, MaskFunction support) {
+		float[] map = new float[size * size];
+		int tiles = (size + NOISE_TILE - 1) / NOISE_TILE;
+
+		if (pool == null) {
+			float[] tile = new float[NOISE_TILE * NOISE_TILE];
+			for (int t = 0; t < tiles * tiles; t++) {
+				fillNoiseTile(noise, map, size, t, tile, support);
+			}
+		} else {
+			pool.invoke(new NoiseTileTask(noise, map, size, 0, tiles * tiles, support));
+		}
+
+		return new FloatMap(-1, 1, size, map);
+	}
+
+	// Evaluates one NOISE_TILE by NOISE_TILE tile of noise, clamped to -1.0 to 1.0
+	private static void fillNoiseTile(SimplexNoise noise, float[] map, int size, int t, float[] tile,
+			MaskFunction support) {
+		int tiles = (size + NOISE_TILE - 1) / NOISE_TILE;
+		int x0 = (t % tiles) * NOISE_TILE, y0 = (t / tiles) * NOISE_TILE;
+		int width = Math.min(NOISE_TILE, size - x0), height = Math.min(NOISE_TILE, size - y0);
+
+		if (support != null && isZero(support, x0, y0, width, height, tile)) {
+			return;
+		}
+
+		noise.getNoise2D(tile, 0, width, x0, y0, width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				float val = tile[y * width + x];
+				if (val > 1.0F) {
+					val = 1.0F;
+				}
+				if (val < -1.0F) {
+					val = -1.0F;
+				}
+				map[(y0 + y) * size + x0 + x] = val;
+			}
+		}
+	}
+
+	// Returns true if every value of the support within the rectangle is 0, row is a scratch buffer
+	private static boolean isZero(MaskFunction support, int x0, int y0, int width, int height, float[] row) {
+		for (int y = y0; y < y0 + height; y++) {
+			support.getRow(y, x0, row, 0, width);
+			for (int x = 0; x < width; x++) {
+				if (row[x] != 0.0F) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// Fork/join task over a range of noise tiles, halved until a few tiles are left
+	private static class NoiseTileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SimplexNoise noise;
+		private final float[] map;
+		private final int size, from, to;
+		private final MaskFunction support;
+
+		NoiseTileTask(SimplexNoise noise, float[] map, int size, int from, int to, MaskFunction support) {
+			this.noise = noise;
+			this.map = map;
+			this.size = size;
+			this.from = from;
+			this.to = to;
+			this.support = support;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 2) {
+				float[] tile = new float[NOISE_TILE * NOISE_TILE];
+				for (int t = from; t < to; t++) {
+					fillNoiseTile(noise, map, size, t, tile, support);
+				}
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new NoiseTileTask(noise, map, size, from, mid, support),
+					new NoiseTileTask(noise, map, size, mid, to, support));
+		}
+	}
+
+}
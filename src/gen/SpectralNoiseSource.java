@@ -0,0 +1,181 @@
+package gen;
+
+import java.util.Random;
+
+public class SpectralNoiseSource implements NoiseSource {
+
+	/*
+	 * NoiseSource that builds fractal noise in the frequency domain
+	 *
+	 * Every frequency bin of an n by n spectrum (n = size rounded up to a power of
+	 * 2) gets a random complex value scaled to the spectrum of the
+	 * matching SimplexNoise: octave i of that noise has amplitude
+	 * persistence^(octaves - i) at 1 / 2^i cycles per pixel, so the amplitude falls
+	 * off as f^log2(persistence) between 1 / 2^(octaves - 1) and the Nyquist limit
+	 * of 0.5. A single inverse 2D FFT then gives the noise, costing O(n^2 log n)
+	 * whatever the octave count
+	 *
+	 * The result is scaled to the standard deviation of the SimplexNoise sum and
+	 * clamped to -1.0 to 1.0. It is seeded only by the seed, octaves and
+	 * persistence, and tiles seamlessly across the n by n square
+	 *
+	 * Needs two n by n float planes while transforming (about 512MB at 8192),
+	 * the real one is reused for the map
+	 */
+
+	// Standard deviation of a single octave of simplex noise, measured
+	private static final double SIMPLEX_STD = 0.44;
+
+	private final int seed, octaves;
+	private final double persistence;
+
+	// SpectralNoiseSource constructor, takes the same parameters as SimplexNoise
+	public SpectralNoiseSource(int octaves, double persistence, int seed) {
+		this.octaves = octaves;
+		this.persistence = persistence;
+		this.seed = seed;
+	}
+
+	// Whole map synthesis, support is not used
+	@Override
+	public FloatMap getNoiseMap(int size, MaskFunction support) {
+		int n = Integer.highestOneBit(Math.max(size, 1));
+		if (n < size) {
+			n <<= 1;
+		}
+
+		// Row-major planes, the real plane becomes the map when n is the size
+		float[] re = new float[n * n];
+		float[] im = new float[n * n];
+
+		// Shape a random spectrum
+		Random random = new Random(seed);
+		double exponent = Math.log(persistence) / Math.log(2) - 1.0;
+		double fmin = 1.0 / Math.pow(2, octaves - 1), fmax = 0.5;
+		for (int v = 0; v < n; v++) {
+			double fv = (v <= n / 2 ? v : v - n) / (double) n;
+			for (int u = 0; u < n; u++) {
+				double fu = (u <= n / 2 ? u : u - n) / (double) n;
+				double f = Math.sqrt(fu * fu + fv * fv);
+				// Draw both values for every bin so the stream does not depend on the band
+				// Uniform values are enough, every pixel sums so many bins that it is Gaussian
+				float gr = random.nextFloat() * 2.0F - 1.0F, gi = random.nextFloat() * 2.0F - 1.0F;
+				if (f < fmin || f > fmax) {
+					continue;
+				}
+				// Each octave spreads its power over a ring of area ~f^2, hence the extra 1 / f
+				double amplitude = Math.pow(f, exponent);
+				re[v * n + u] = (float) (gr * amplitude);
+				im[v * n + u] = (float) (gi * amplitude);
+			}
+		}
+
+		inverseTransform(re, im, n);
+		im = null;
+
+		// Scale to the spread of the matching SimplexNoise sum
+		double sum = 0, squares = 0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				float val = re[y * n + x];
+				sum += val;
+				squares += (double) val * val;
+			}
+		}
+		double count = (double) size * size;
+		double std = Math.sqrt(Math.max(squares / count - (sum / count) * (sum / count), 0));
+
+		double target = 0;
+		for (int i = 0; i < octaves; i++) {
+			target += Math.pow(persistence, 2 * (octaves - i));
+		}
+		target = SIMPLEX_STD * Math.sqrt(target);
+		float scale = std > 0 ? (float) (target / std) : 0.0F;
+
+		float[] map = n == size ? re : new float[size * size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				float val = re[y * n + x] * scale;
+				if (val > 1.0F) {
+					val = 1.0F;
+				}
+				if (val < -1.0F) {
+					val = -1.0F;
+				}
+				map[y * size + x] = val;
+			}
+		}
+
+		return new FloatMap(-1, 1, size, map);
+	}
+
+	// In place inverse 2D FFT of an n by n row-major complex plane, n a power of 2, unnormalized
+	private static void inverseTransform(float[] re, float[] im, int n) {
+		float[] cos = new float[n / 2], sin = new float[n / 2];
+		for (int k = 0; k < n / 2; k++) {
+			cos[k] = (float) Math.cos(2 * Math.PI * k / n);
+			sin[k] = (float) Math.sin(2 * Math.PI * k / n);
+		}
+
+		// Along x, every row is already contiguous
+		float[] rre = new float[n], rim = new float[n];
+		for (int y = 0; y < n; y++) {
+			System.arraycopy(re, y * n, rre, 0, n);
+			System.arraycopy(im, y * n, rim, 0, n);
+			transform(rre, rim, n, cos, sin);
+			System.arraycopy(rre, 0, re, y * n, n);
+			System.arraycopy(rim, 0, im, y * n, n);
+		}
+
+		// Along y, one column at a time
+		for (int x = 0; x < n; x++) {
+			for (int y = 0; y < n; y++) {
+				rre[y] = re[y * n + x];
+				rim[y] = im[y * n + x];
+			}
+			transform(rre, rim, n, cos, sin);
+			for (int y = 0; y < n; y++) {
+				re[y * n + x] = rre[y];
+				im[y * n + x] = rim[y];
+			}
+		}
+	}
+
+	// In place iterative radix-2 inverse FFT of one row
+	private static void transform(float[] re, float[] im, int n, float[] cos, float[] sin) {
+		// Bit reversal permutation
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				float t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+
+		// Butterflies, positive exponent for the inverse transform
+		for (int len = 2; len <= n; len <<= 1) {
+			int half = len >> 1, step = n / len;
+			for (int i = 0; i < n; i += len) {
+				for (int k = 0; k < half; k++) {
+					float wr = cos[k * step], wi = sin[k * step];
+					int a = i + k, b = a + half;
+					float xr = re[b] * wr - im[b] * wi;
+					float xi = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - xr;
+					im[b] = im[a] - xi;
+					re[a] += xr;
+					im[a] += xi;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package gen;
+
+public enum StorageMode {
+
+	/*
+	 * Where a FloatMap keeps its values
+	 * 
+	 * HEAP stores them in a float array on the Java heap
+	 * DIRECT stores them in direct buffers outside the heap, so large maps are not
+	 * copied or marked by the garbage collector. The memory is freed by
+	 * FloatMap.release (or World.release), or by the collector otherwise
+	 * 
+	 * Both hold exact float values, the results of every operation are the same
+	 * 
+	 * The quantized modes trade precision for memory, values are rounded when
+	 * stored and read back as floats. Operations work on the rounded values, so
+	 * they are meant for finished maps within 0.0 to 1.0 (like the height and
+	 * moisture maps of a World) rather than for maps still being built
+	 * 
+	 * UNORM16 stores 16 bit steps of 0.0 to 1.0, clamping (half the memory)
+	 * HALF stores half precision floats, any range (half the memory)
+	 * UNORM8 stores 8 bit steps of 0.0 to 1.0, clamping (a quarter of the memory)
+	 */
+
+	HEAP, DIRECT, UNORM16, HALF, UNORM8;
+
+}
@@ -0,0 +1,119 @@
+package gen;
+
+final class UnormFloatStorage implements FloatStorage {
+
+	/*
+	 * FloatStorage keeping every value as an unsigned normalized integer of 8 or
+	 * 16 bits on the heap, 0 is 0.0 and 2^bits - 1 (255 or 65535) is 1.0. 8 bit
+	 * steps are kept in a byte array, 16 bit steps in a short array
+	 *
+	 * Values are clamped to 0.0 to 1.0 (NaN becomes 0.0) and rounded to the
+	 * nearest step, the error is at most 1 / (2 * (2^bits - 1)), 1 / 510 for 8
+	 * bits and 1 / 131070 for 16 bits
+	 */
+
+	// Float value of every step for either width
+	private static final float[] DECODE8 = decodeTable(8), DECODE16 = decodeTable(16);
+
+	private final int bits, max;
+	private final float scale;
+	private final float[] decode;
+
+	// Only the array for the width is allocated
+	private byte[] bytes;
+	private short[] shorts;
+
+	// UnormFloatStorage constructor, bits is 8 or 16
+	UnormFloatStorage(int bits, int length) {
+		if (bits == 8) {
+			this.bytes = new byte[length];
+			this.decode = DECODE8;
+		} else if (bits == 16) {
+			this.shorts = new short[length];
+			this.decode = DECODE16;
+		} else {
+			throw new IllegalArgumentException("unorm storage needs 8 or 16 bits, got " + bits);
+		}
+		this.bits = bits;
+		this.max = (1 << bits) - 1;
+		this.scale = max;
+	}
+
+	private static float[] decodeTable(int bits) {
+		float[] table = new float[1 << bits];
+		float scale = table.length - 1;
+		for (int i = 0; i < table.length; i++) {
+			table[i] = i / scale;
+		}
+		return table;
+	}
+
+	// Returns the step nearest to value, clamped to 0 to max
+	private int encode(float value) {
+		if (!(value > 0.0F)) {
+			return 0;
+		}
+		if (value >= 1.0F) {
+			return max;
+		}
+		return (int) (value * scale + 0.5F);
+	}
+
+	private int step(int index) {
+		return bytes != null ? bytes[index] & 0xFF : shorts[index] & 0xFFFF;
+	}
+
+	private void setStep(int index, int step) {
+		if (bytes != null) {
+			bytes[index] = (byte) step;
+		} else {
+			shorts[index] = (short) step;
+		}
+	}
+
+	@Override
+	public int length() {
+		return bytes != null ? bytes.length : shorts.length;
+	}
+
+	@Override
+	public float get(int index) {
+		return decode[step(index)];
+	}
+
+	@Override
+	public void set(int index, float value) {
+		setStep(index, encode(value));
+	}
+
+	@Override
+	public void read(int index, float[] dst, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			dst[offset + i] = decode[step(index + i)];
+		}
+	}
+
+	@Override
+	public void write(int index, float[] src, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			setStep(index + i, encode(src[offset + i]));
+		}
+	}
+
+	@Override
+	public float[] array() {
+		return null;
+	}
+
+	@Override
+	public StorageMode getMode() {
+		return bits == 8 ? StorageMode.UNORM8 : StorageMode.UNORM16;
+	}
+
+	@Override
+	public void release() {
+		this.bytes = null;
+		this.shorts = null;
+	}
+
+}
@@ -3,6 +3,12 @@ package gen;
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.Random;
 
 import javax.imageio.ImageIO;
@@ -12,8 +18,24 @@ public class World {
 	/*
 	 * Contains all data for a World from the Generator class
 	 * Responsible for writing out a biome RGB image
+	 * 
+	 * Worlds can be saved to and loaded from a file, little-endian:
+	 * int magic ('WRLD'), int version, int size, int seed, the height map and the
+	 * moisture map (FloatMapFile layout), then size * size biome ordinals as
+	 * bytes row by row (255 for a missing biome)
 	 */
 	
+	private static final int MAGIC = 0x57524C44, VERSION = 1, HEADER = 16;
+
+	//Image pixel of every biome by ordinal
+	private static final int[] BIOME_COLORS = new int[Biome.values().length];
+
+	static {
+		for (Biome biome : Biome.values()) {
+			BIOME_COLORS[biome.ordinal()] = ImageRaster.pixel(biome.getColor());
+		}
+	}
+	
 	//FloatMaps for height and moisture values
 	private FloatMap heightMap, moistureMap;
 	
@@ -34,21 +56,24 @@ public class World {
 	//String fname = file name of the outputted file
 	//File will be written to the current working directory
 	public void writeImage(String fName) {
-		//Create a new image
-		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-		for (int x = 0; x < size; x++) {
-			for (int y = 0; y < size; y++) {
+		//Create the image, each band of rows is filled column by column so tileMap[x] is read in order
+		//and the band being written stays in cache
+		BufferedImage image = ImageRaster.write(size, (from, to, pixels) -> {
+			for (int x = 0; x < size; x++) {
+				Biome[] column = tileMap[x];
+				for (int y = from; y < to; y++) {
+
+					// Debug any missing tiles
+					if (column[y] == null) {
+						System.out.println("no biome @ (" + x + ", " + y + "), val=(" + heightMap.get(x, y) + ", "
+								+ moistureMap.get(x, y));
+					}
 
-				// Debug any missing tiles
-				if (tileMap[x][y] == null) {
-					System.out.println("no biome @ (" + x + ", " + y + "), val=(" + heightMap.get(x, y) + ", "
-							+ moistureMap.get(x, y));
+					//Set the pixel to the matching biome color
+					pixels[y * size + x] = BIOME_COLORS[column[y].ordinal()];
 				}
-
-				//Set the RGB of the current pixel to the matching biome color
-				image.setRGB(x, y, tileMap[x][y].getColor().getRGB());
 			}
-		}
+		});
 
 		try {
 			//Write created image to the disk in the PNG format
@@ -58,6 +83,75 @@ public class World {
 		}
 	}
 
+	//Write out the height map, moisture map and biomes to a file that load can read back
+	public void save(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(seed);
+			header.flip();
+			FloatMapFile.writeFully(channel, header);
+
+			FloatMapFile.write(heightMap, channel);
+			FloatMapFile.write(moistureMap, channel);
+
+			ByteBuffer row = ByteBuffer.allocate(size);
+			for (int y = 0; y < size; y++) {
+				row.clear();
+				for (int x = 0; x < size; x++) {
+					row.put(tileMap[x][y] == null ? (byte) 255 : (byte) tileMap[x][y].ordinal());
+				}
+				row.flip();
+				FloatMapFile.writeFully(channel, row);
+			}
+		}
+	}
+
+	/*
+	 * Loads a world written by save without generating it again
+	 * 
+	 * The height and moisture maps are mapped into memory (see FloatMap.load),
+	 * call release once done to unmap them
+	 */
+	public static World load(File file) throws IOException {
+		boolean writable = Files.isWritable(file.toPath());
+		try (FileChannel channel = writable
+				? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			FloatMapFile.readFully(channel, header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				throw new IOException(file + " is not a world file");
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("unsupported world version " + version);
+			}
+			int size = header.getInt(), seed = header.getInt();
+
+			World world = new World(size, seed);
+			long position = HEADER;
+			world.setHeightMap(FloatMapFile.map(channel, position, writable));
+			position += FloatMapFile.length(size);
+			world.setMoistureMap(FloatMapFile.map(channel, position, writable));
+			position += FloatMapFile.length(size);
+
+			Biome[] biomes = Biome.values();
+			ByteBuffer row = ByteBuffer.allocate(size);
+			for (int y = 0; y < size; y++) {
+				row.clear();
+				FloatMapFile.readFully(channel, row, position);
+				position += size;
+				for (int x = 0; x < size; x++) {
+					int ordinal = row.get(x) & 0xFF;
+					world.tileMap[x][y] = ordinal < biomes.length ? biomes[ordinal] : null;
+				}
+			}
+			return world;
+		}
+	}
+
 	//Calculates out the biomes if the height and moisture FloatMaps have data
 	public void calculateBiomes() {
 		for (int x = 0; x < size; x++) {
@@ -118,4 +212,18 @@ public class World {
 		this.moistureMap = mp;
 	}
 
+	//Frees the height and moisture maps and the biome array, the world must not be used afterwards
+	//Maps stored DIRECT are freed right away instead of whenever the collector gets to them
+	public void release() {
+		if (heightMap != null) {
+			heightMap.release();
+			heightMap = null;
+		}
+		if (moistureMap != null) {
+			moistureMap.release();
+			moistureMap = null;
+		}
+		tileMap = null;
+	}
+
 }
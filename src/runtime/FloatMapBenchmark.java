@@ -0,0 +1,86 @@
+package runtime;
+
+import java.util.Random;
+
+import gen.FloatMap;
+
+public class FloatMapBenchmark {
+
+	/*
+	 * Microbenchmark of the elementwise FloatMap operations
+	 *
+	 * Times every operation on one core (the default pool is disabled) over a map
+	 * of random values in 0.0 to 1.0, restored before every run. Prints the
+	 * average time per run and per value, and the fastest run
+	 *
+	 * Usage: FloatMapBenchmark [size] [runs]
+	 *
+	 * Running once more with -XX:-UseSuperWord turns off the JIT's SIMD code
+	 * generation and shows the speedup of the lane-wise operations, the ones that
+	 * branch per value are not vectorized
+	 */
+
+	// Runs before timing so every operation is compiled
+	private static final int WARMUP = 20;
+
+	private interface Operation {
+		void run(FloatMap map, FloatMap other);
+	}
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		FloatMap.setDefaultPool(null);
+
+		// Random values, restored before every run so repeated blends do not decay
+		Random random = new Random(0);
+		float[] values = new float[size * size], others = new float[size * size];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextFloat();
+			others[i] = random.nextFloat();
+		}
+		FloatMap map = new FloatMap(0, 1, size), other = new FloatMap(0, 1, size, others);
+
+		System.out.println("size=" + size + ", runs=" + runs);
+		benchmark("adjustRange", (m, o) -> m.adjustRange(0.25F, 0.75F), map, other, values, runs);
+		benchmark("invert", (m, o) -> m.invert(), map, other, values, runs);
+		benchmark("blend", (m, o) -> m.blend(o), map, other, values, runs);
+		benchmark("weightedBlend", (m, o) -> m.weightedBlend(o, 0.75F, 0.25F), map, other, values, runs);
+		benchmark("blendEmpty", (m, o) -> m.blendEmpty(o), map, other, values, runs);
+		benchmark("blendAdditive", (m, o) -> m.blendAdditive(o), map, other, values, runs);
+		benchmark("addModifier", (m, o) -> m.addModifier(0.1F, 0.25F, 0.75F), map, other, values, runs);
+		benchmark("pruneValues", (m, o) -> {
+			m.setRange(0.25F, 0.75F);
+			m.pruneValues();
+		}, map, other, values, runs);
+		benchmark("fused chain", (m, o) -> m.lazy()
+				.blend(o)
+				.addModifier(0.1F, 0.0F, 1.0F)
+				.adjustRange(0, 1)
+				.pruneValues()
+				.materialize(), map, other, values, runs);
+	}
+
+	private static void benchmark(String name, Operation operation, FloatMap map, FloatMap other, float[] values,
+			int runs) {
+		long total = 0, best = Long.MAX_VALUE;
+		for (int r = 0; r < WARMUP + runs; r++) {
+			System.arraycopy(values, 0, map.getData(), 0, values.length);
+			map.setRange(0, 1);
+
+			long start = System.nanoTime();
+			operation.run(map, other);
+			long time = System.nanoTime() - start;
+			if (r >= WARMUP) {
+				total += time;
+				best = Math.min(best, time);
+			}
+		}
+
+		double ms = total / 1e6 / runs;
+		double ns = (double) total / runs / values.length;
+		System.out.println(String.format("%-14s %8.3f ms %7.3f ns/value (best %.3f ms)", name, ms, ns, best / 1e6));
+	}
+
+}
@@ -0,0 +1,57 @@
+package runtime;
+
+import ext.NoiseKernel;
+import ext.SimplexNoise;
+import gen.SimplexNoiseSource;
+
+public class NoiseBenchmark {
+
+	/*
+	 * Benchmark of the SimplexNoise kernels through SimplexNoiseSource
+	 *
+	 * Builds a size by size noise map the way the Generator does, on one core (no
+	 * pool), for every NoiseKernel or only the one given. Prints the average time
+	 * per run and per value, and the fastest run
+	 *
+	 * Usage: NoiseBenchmark [size] [octaves] [runs] [kernel]
+	 *
+	 * The kernels share the row code of SimplexNoise, so the JIT profile of one
+	 * can slow down the next within the same run. Passing a kernel times it alone
+	 */
+
+	// Runs before timing so every kernel is compiled
+	private static final int WARMUP = 3;
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+		int octaves = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		NoiseKernel[] kernels = args.length > 3 ? new NoiseKernel[] { NoiseKernel.valueOf(args[3]) }
+				: NoiseKernel.values();
+
+		System.out.println("size=" + size + ", octaves=" + octaves + ", runs=" + runs);
+		for (NoiseKernel kernel : kernels) {
+			benchmark(kernel, size, octaves, runs);
+		}
+	}
+
+	private static void benchmark(NoiseKernel kernel, int size, int octaves, int runs) {
+		long total = 0, best = Long.MAX_VALUE;
+		for (int r = 0; r < WARMUP + runs; r++) {
+			SimplexNoiseSource source = new SimplexNoiseSource(new SimplexNoise(octaves, 0.6, r, kernel), null);
+
+			long start = System.nanoTime();
+			source.getNoiseMap(size, null);
+			long time = System.nanoTime() - start;
+			if (r >= WARMUP) {
+				total += time;
+				best = Math.min(best, time);
+			}
+		}
+
+		double ms = total / 1e6 / runs;
+		double ns = (double) total / runs / ((long) size * size);
+		System.out.println(String.format("%-7s %9.1f ms %7.2f ns/value (best %.1f ms)", kernel, ms, ns, best / 1e6));
+	}
+
+}
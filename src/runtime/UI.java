@@ -155,6 +155,11 @@ public class UI extends JFrame {
 		//Get world parameters and start generation
 		int worldSize = ((WorldSize)cmbWorldSize.getSelectedItem()).getSize();
 		int worldSeed = Integer.parseInt(tfSeed.getText());
+		
+		//Free the previous world once its generation has finished
+		if (this.generator != null && this.generator.getProgress() == 100.0D) {
+			this.generator.getWorld().release();
+		}
 		this.generator = new Generator(worldSize, worldSeed);
 		
 		//Check for pangea selections